@@ -0,0 +1,103 @@
+package com.example.school.benchmark;
+
+import com.example.school.SchoolApplication;
+import com.example.school.model.Student;
+import com.example.school.model.StudentResponse;
+import com.example.school.service.StudentService;
+import com.example.school.util.CursorPage;
+import com.example.school.util.RepositoryScheduler;
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The blocking JPA stack, dispatched through the repository scheduler as the servlet controller
+ * does, against the R2DBC stack of the {@code reactive} profile, under the same concurrent
+ * callers. Both boot without a web server so only the service path is measured; the detail
+ * cache and in-memory indexes stay at their defaults for the blocking stack. Both pool the same
+ * number of connections. Built only with the {@code jmh} and {@code reactive} Maven profiles
+ * together, so a plain {@code jmh} run never tries to boot the reactive stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class StackComparisonBenchmark {
+
+    private static final int TABLE_SIZE = 10000;
+
+    @Param({"blocking", "reactive"})
+    private String stack;
+
+    private ConfigurableApplicationContext context;
+
+    private StudentService studentService;
+
+    private RepositoryScheduler repositoryScheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean reactive = stack.equals("reactive");
+        // command line arguments, so they win over the profile's own settings
+        context = new SpringApplicationBuilder(SchoolApplication.class)
+                .profiles(reactive ? new String[]{"reactive"} : new String[0])
+                .run("--spring.main.web-application-type=none",
+                        "--spring.datasource.url=jdbc:h2:mem:stack-" + stack + ";DB_CLOSE_DELAY=-1",
+                        "--school.reactive.r2dbc-url=r2dbc:h2:mem:///stack-" + stack + "?options=DB_CLOSE_DELAY=-1",
+                        "--logging.level.root=WARN");
+        studentService = context.getBean(StudentService.class);
+        repositoryScheduler = reactive ? null : context.getBean(RepositoryScheduler.class);
+        studentService.newStudents(StudentServiceBenchmark.seedStudents(TABLE_SIZE)).blockingGet();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Student getStudentDetail() {
+        return dispatch("getStudentDetail", studentService.getStudentDetail(randomId())).blockingGet();
+    }
+
+    @Benchmark
+    public CursorPage<StudentResponse> getPageAfterRandomCursor() {
+        return dispatch("getActiveStudents", studentService.getActiveStudents(randomId(), 50)).blockingGet();
+    }
+
+    @Benchmark
+    public void updateStudent() {
+        Completable update = studentService.updateStudent(
+                new Student(randomId(), "Updated", ThreadLocalRandom.current().nextBoolean()));
+        (repositoryScheduler == null ? update : repositoryScheduler.schedule("updateStudent", update)).blockingAwait();
+    }
+
+    private <T> Single<T> dispatch(String operation, Single<T> single) {
+        return repositoryScheduler == null ? single : repositoryScheduler.schedule(operation, single);
+    }
+
+    private String randomId() {
+        return StudentServiceBenchmark.studentId(ThreadLocalRandom.current().nextInt(TABLE_SIZE));
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.school.benchmark;
+
+import com.example.school.model.Student;
+import com.example.school.model.StudentResponse;
+import com.example.school.util.DataResponse;
+import com.example.school.util.StudentMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.BeanUtils;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Response mapping and serialization cost of a student listing, independent of the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StudentMappingBenchmark {
+
+    @Param({"50", "500", "10000"})
+    private int listSize;
+
+    private List<Student> students;
+
+    private ObjectMapper objectMapper;
+
+    private ObjectMapper smileMapper;
+
+    private ObjectMapper cborMapper;
+
+    @Setup
+    public void setUp() {
+        students = StudentServiceBenchmark.seedStudents(listSize);
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+        cborMapper = Jackson2ObjectMapperBuilder.cbor().build();
+    }
+
+    /**
+     * Reflective copy the controller used before the hand-written {@link StudentMapper}.
+     */
+    @Benchmark
+    public List<Student> beanUtilsCopy() {
+        return students.stream()
+                .map(student -> {
+                    Student response = new Student();
+                    BeanUtils.copyProperties(student, response);
+                    return response;
+                })
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<StudentResponse> mapperCopy() {
+        return students.stream()
+                .map(StudentMapper::toStudentResponse)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public byte[] serializeDataResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(DataResponse.successWithData(students));
+    }
+
+    @Benchmark
+    public byte[] serializeDataResponseSmile() throws JsonProcessingException {
+        return smileMapper.writeValueAsBytes(DataResponse.successWithData(students));
+    }
+
+    @Benchmark
+    public byte[] serializeDataResponseCbor() throws JsonProcessingException {
+        return cborMapper.writeValueAsBytes(DataResponse.successWithData(students));
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.school.benchmark;
+
+import com.example.school.SchoolApplication;
+import com.example.school.model.Student;
+import com.example.school.model.StudentResponse;
+import com.example.school.service.StudentService;
+import com.example.school.util.CursorPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service operations against the embedded H2 database, seeded with {@code tableSize} students
+ * of which roughly a quarter are inactive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StudentServiceBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int tableSize;
+
+    private ConfigurableApplicationContext context;
+
+    private StudentService studentService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(SchoolApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:benchmark-" + tableSize,
+                        "logging.level.root=WARN")
+                .run();
+        studentService = context.getBean(StudentService.class);
+        studentService.newStudents(seedStudents(tableSize)).blockingGet();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Student getStudentDetail() {
+        return studentService.getStudentDetail(randomId()).blockingGet();
+    }
+
+    @Benchmark
+    public CursorPage<StudentResponse> getFirstPage() {
+        return studentService.getActiveStudents(null, 50).blockingGet();
+    }
+
+    @Benchmark
+    public CursorPage<StudentResponse> getPageAfterRandomCursor() {
+        return studentService.getActiveStudents(randomId(), 50).blockingGet();
+    }
+
+    @Benchmark
+    public List<StudentResponse> getAllStudents() {
+        return studentService.getAllStudents().blockingGet();
+    }
+
+    @Benchmark
+    public void updateStudent() {
+        studentService.updateStudent(new Student(randomId(), "Updated", ThreadLocalRandom.current().nextBoolean()))
+                .blockingAwait();
+    }
+
+    @Benchmark
+    public long exportStudents() {
+        return studentService.exportStudents().count().blockingGet();
+    }
+
+    private String randomId() {
+        return studentId(ThreadLocalRandom.current().nextInt(tableSize));
+    }
+
+    static List<Student> seedStudents(int count) {
+        List<Student> students = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            students.add(new Student(studentId(i), "Student " + i, i % 4 != 0));
+        return students;
+    }
+
+    static String studentId(int index) {
+        return String.format("S%08d", index);
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.school.load;
+
+import com.example.school.model.Student;
+import com.example.school.service.StudentService;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Open-model load test of the {@code /students} API against a seeded in-memory database.
+ * <p>
+ * Requests are scheduled at a fixed rate and each latency is measured from the request's
+ * intended start, not from when a worker got around to sending it, so a stall shows up in the
+ * percentiles of every request queued behind it instead of being hidden by coordinated
+ * omission. Tuned through {@code load.*} system properties; percentile distributions per
+ * operation and in total are written to {@code target/load-test/*.hgrm}.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "logging.level.root=WARN")
+public class StudentApiLoadTest {
+
+    private static final int SEED_SIZE = Integer.getInteger("load.seed-size", 10000);
+
+    private static final int RATE = Integer.getInteger("load.rate", 500);
+
+    private static final int WARMUP_SECONDS = Integer.getInteger("load.warmup-seconds", 5);
+
+    private static final int DURATION_SECONDS = Integer.getInteger("load.duration-seconds", 30);
+
+    /**
+     * Relative weights of reads, writes and list pages.
+     */
+    private static final String MIX = System.getProperty("load.mix", "70:10:20");
+
+    private static final int CONNECTIONS = Integer.getInteger("load.connections", 64);
+
+    private static final long P99_THRESHOLD_MILLIS = Long.getLong("load.p99-threshold-millis", 50L);
+
+    private static final double MAX_ERROR_RATE = Double.parseDouble(System.getProperty("load.max-error-rate", "0.001"));
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private static final File REPORT_DIRECTORY = new File("target/load-test");
+
+    static {
+        // the JDK keeps only five idle keep-alive connections per host by default
+        System.setProperty("http.maxConnections", String.valueOf(CONNECTIONS));
+    }
+
+    private enum Operation {
+        READ, WRITE, LIST
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private StudentService studentService;
+
+    @Test
+    public void shouldSustainRateWithinP99Threshold() throws Exception {
+        studentService.newStudents(seedStudents()).blockingGet();
+        int[] weights = parseMix(MIX);
+
+        run(WARMUP_SECONDS, weights, null, new AtomicLong());
+
+        Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values())
+            histograms.put(operation, new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3));
+        AtomicLong errors = new AtomicLong();
+        long requests = run(DURATION_SECONDS, weights, histograms, errors);
+
+        Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        for (Histogram histogram : histograms.values())
+            total.add(histogram);
+        writeReports(histograms, total);
+
+        double p99Millis = total.getValueAtPercentile(99.0) / 1000.0;
+        double errorRate = (double) errors.get() / requests;
+        System.out.printf("load test: %d req/s for %ds, mix %s, p50 %.2fms, p99 %.2fms, p99.9 %.2fms, max %.2fms, "
+                        + "errors %d%n", RATE, DURATION_SECONDS, MIX, total.getValueAtPercentile(50.0) / 1000.0,
+                p99Millis, total.getValueAtPercentile(99.9) / 1000.0, total.getMaxValue() / 1000.0, errors.get());
+
+        assertTrue("error rate " + errorRate + " above " + MAX_ERROR_RATE, errorRate <= MAX_ERROR_RATE);
+        assertTrue("p99 " + p99Millis + "ms above " + P99_THRESHOLD_MILLIS + "ms", p99Millis <= P99_THRESHOLD_MILLIS);
+    }
+
+    /**
+     * Issues {@code RATE * seconds} requests on their fixed schedule and returns how many were
+     * sent. Nothing is recorded when {@code histograms} is null.
+     */
+    private long run(int seconds, int[] weights, Map<Operation, Histogram> histograms, AtomicLong errors)
+            throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / RATE;
+        long requests = (long) RATE * seconds;
+        long start = System.nanoTime();
+        AtomicLong next = new AtomicLong();
+        ExecutorService workers = Executors.newFixedThreadPool(CONNECTIONS);
+        for (int i = 0; i < CONNECTIONS; i++) {
+            workers.execute(() -> {
+                long index;
+                while ((index = next.getAndIncrement()) < requests) {
+                    long intendedStart = start + index * intervalNanos;
+                    long delay;
+                    while ((delay = intendedStart - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(delay);
+                    Operation operation = pick(weights);
+                    boolean succeeded = send(operation);
+                    long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart);
+                    if (histograms == null)
+                        continue;
+                    histograms.get(operation).recordValue(Math.min(latencyMicros, HIGHEST_TRACKABLE_MICROS));
+                    if (!succeeded)
+                        errors.incrementAndGet();
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+        return requests;
+    }
+
+    private boolean send(Operation operation) {
+        String id = studentId(ThreadLocalRandom.current().nextInt(SEED_SIZE));
+        try {
+            HttpURLConnection connection;
+            if (operation == Operation.READ)
+                connection = open("/students/" + id, "GET");
+            else if (operation == Operation.LIST)
+                connection = open("/students?size=50&after=" + id, "GET");
+            else {
+                connection = open("/students/" + id, "PUT");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream body = connection.getOutputStream()) {
+                    body.write(("{\"name\":\"Load " + id + "\",\"active\":" + ThreadLocalRandom.current().nextBoolean()
+                            + "}").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int status = connection.getResponseCode();
+            // reading the body to the end returns the connection to the keep-alive cache
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            return status < 500;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private HttpURLConnection open(String path, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+        return connection;
+    }
+
+    private static void drain(InputStream inputStream) throws IOException {
+        if (inputStream == null)
+            return;
+        try (InputStream body = inputStream) {
+            byte[] buffer = new byte[8192];
+            while (body.read(buffer) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    private static Operation pick(int[] weights) {
+        int ticket = ThreadLocalRandom.current().nextInt(weights[0] + weights[1] + weights[2]);
+        if (ticket < weights[0])
+            return Operation.READ;
+        return ticket < weights[0] + weights[1] ? Operation.WRITE : Operation.LIST;
+    }
+
+    private static int[] parseMix(String mix) {
+        String[] parts = mix.split(":");
+        if (parts.length != 3)
+            throw new IllegalArgumentException("load.mix must be read:write:list, got " + mix);
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2])};
+    }
+
+    private static void writeReports(Map<Operation, Histogram> histograms, Histogram total) throws IOException {
+        if (!REPORT_DIRECTORY.isDirectory() && !REPORT_DIRECTORY.mkdirs())
+            throw new IOException("cannot create " + REPORT_DIRECTORY);
+        for (Map.Entry<Operation, Histogram> entry : histograms.entrySet())
+            writeReport(entry.getKey().name().toLowerCase() + ".hgrm", entry.getValue());
+        writeReport("total.hgrm", total);
+    }
+
+    private static void writeReport(String fileName, Histogram histogram) throws IOException {
+        try (PrintStream report = new PrintStream(new File(REPORT_DIRECTORY, fileName), "UTF-8")) {
+            // recorded in microseconds, reported in milliseconds
+            histogram.outputPercentileDistribution(report, 1000.0);
+        }
+    }
+
+    private static List<Student> seedStudents() {
+        List<Student> students = new ArrayList<>(SEED_SIZE);
+        for (int i = 0; i < SEED_SIZE; i++)
+            students.add(new Student(studentId(i), "Student " + i, i % 4 != 0));
+        return students;
+    }
+
+    private static String studentId(int index) {
+        return String.format("L%08d", index);
+    }
+}
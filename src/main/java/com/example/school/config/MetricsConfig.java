@@ -0,0 +1,16 @@
+package com.example.school.config;
+
+import com.example.school.service.impl.StudentDetailCache;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder studentDetailCacheMetrics(StudentDetailCache studentDetailCache) {
+        return registry -> CaffeineCacheMetrics.monitor(registry, studentDetailCache.getNativeCache(), "students.detail");
+    }
+}
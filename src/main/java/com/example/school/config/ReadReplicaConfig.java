@@ -0,0 +1,53 @@
+package com.example.school.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Opt-in read/write split. The primary pool is built from {@code spring.datasource.*} as
+ * before, the replica pool from {@code school.datasource.replica.*}, and the data source
+ * handed to JPA and JDBC picks between them per transaction, see
+ * {@link ReadWriteRoutingDataSource}.
+ */
+@Configuration
+@Profile("!reactive")
+@ConditionalOnProperty(name = "school.datasource.replica.enabled", havingValue = "true")
+public class ReadReplicaConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @ConfigurationProperties("school.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(
+            @Value("${school.datasource.replica.url:jdbc:h2:mem:school-replica;DB_CLOSE_DELAY=-1}") String url) {
+        return DataSourceBuilder.create().type(HikariDataSource.class).url(url).username("sa").build();
+    }
+
+    @Bean
+    public ReadWriteRoutingDataSource routingDataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                                                        @Qualifier("replicaDataSource") DataSource replicaDataSource) {
+        return new ReadWriteRoutingDataSource(primaryDataSource, replicaDataSource);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReadWriteRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
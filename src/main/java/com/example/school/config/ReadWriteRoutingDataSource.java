@@ -0,0 +1,52 @@
+package com.example.school.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Routes connections taken inside a read-only transaction to the replica and everything else,
+ * including work outside any transaction, to the primary.
+ * <p>
+ * The read-only flag is only published after the transaction manager has asked for its
+ * connection, so this has to sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}, which defers the
+ * choice to the first statement.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    private enum Target {
+        PRIMARY, REPLICA
+    }
+
+    private final DataSource primary;
+
+    private final DataSource replica;
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica) {
+        this.primary = primary;
+        this.replica = replica;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(Target.PRIMARY, primary);
+        targets.put(Target.REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public DataSource getReplica() {
+        return replica;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() ? Target.REPLICA : Target.PRIMARY;
+    }
+}
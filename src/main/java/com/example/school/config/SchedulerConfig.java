@@ -0,0 +1,17 @@
+package com.example.school.config;
+
+import com.example.school.util.RepositoryScheduler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class SchedulerConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public RepositoryScheduler repositoryScheduler(
+            @Value("${school.scheduler.repository.threads:10}") int threads,
+            @Value("${school.scheduler.repository.queue-capacity:200}") int queueCapacity) {
+        return new RepositoryScheduler(threads, queueCapacity);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.school.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Routes each new connection to the shard selected on the current thread with
+ * {@link #on(int, Supplier)}, or to shard 0 when none is, which is where JPA bootstraps and
+ * creates its schema.
+ * <p>
+ * A transaction keeps the connection it started with, so the shard has to be chosen before a
+ * transaction begins and cannot change inside one.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+    private static final ThreadLocal<Integer> CURRENT_SHARD = new ThreadLocal<>();
+
+    private final List<DataSource> shards;
+
+    public ShardRoutingDataSource(List<DataSource> shards) {
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        Map<Object, Object> targets = new HashMap<>();
+        for (int shard = 0; shard < shards.size(); shard++)
+            targets.put(shard, shards.get(shard));
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(shards.get(0));
+        afterPropertiesSet();
+    }
+
+    public List<DataSource> getShards() {
+        return shards;
+    }
+
+    /**
+     * Runs {@code work} with connections taken from {@code shard}.
+     */
+    public static <T> T on(int shard, Supplier<T> work) {
+        Integer previous = CURRENT_SHARD.get();
+        if (previous != null && previous != shard && TransactionSynchronizationManager.isActualTransactionActive())
+            throw new IllegalStateException("Cannot switch from shard " + previous + " to " + shard
+                    + " inside a transaction");
+        CURRENT_SHARD.set(shard);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null)
+                CURRENT_SHARD.remove();
+            else
+                CURRENT_SHARD.set(previous);
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return CURRENT_SHARD.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DataSource shard : shards) {
+            if (shard instanceof Closeable)
+                ((Closeable) shard).close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.school.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opt-in hash sharding of student storage over {@code school.datasource.shards.count} pools.
+ * Shard URLs come from {@code school.datasource.shards.url-pattern} with the shard number
+ * substituted, and every pool is configured from {@code school.datasource.shards.hikari.*}.
+ * Cannot be combined with the read replica, both replace the application data source.
+ */
+@Configuration
+@Profile("!reactive")
+@ConditionalOnProperty(name = "school.datasource.shards.enabled", havingValue = "true")
+public class ShardingConfig {
+
+    @Bean
+    @Primary
+    public ShardRoutingDataSource dataSource(
+            Environment environment,
+            @Value("${school.datasource.shards.count:4}") int count,
+            @Value("${school.datasource.shards.url-pattern:jdbc:h2:mem:school-shard-%d;DB_CLOSE_DELAY=-1}") String urlPattern,
+            @Value("${school.datasource.replica.enabled:false}") boolean replicaEnabled) {
+        if (replicaEnabled)
+            throw new IllegalStateException("school.datasource.shards and school.datasource.replica are mutually exclusive");
+        if (count < 1)
+            throw new IllegalArgumentException("school.datasource.shards.count must be positive, got " + count);
+        Binder binder = Binder.get(environment);
+        List<DataSource> shards = new ArrayList<>(count);
+        for (int shard = 0; shard < count; shard++) {
+            HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class)
+                    .url(String.format(urlPattern, shard)).username("sa").build();
+            dataSource.setPoolName("shard-" + shard);
+            binder.bind("school.datasource.shards.hikari", Bindable.ofInstance(dataSource));
+            shards.add(dataSource);
+        }
+        return new ShardRoutingDataSource(shards);
+    }
+}
@@ -10,4 +10,9 @@ public class BadRequestException extends Exception {
     public BadRequestException(String message) {
         super(message);
     }
+
+    protected BadRequestException(String message, Throwable cause, boolean enableSuppression,
+                                  boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
 }
\ No newline at end of file
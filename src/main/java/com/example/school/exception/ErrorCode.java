@@ -5,7 +5,8 @@ import org.springframework.http.HttpStatus;
 
 public enum ErrorCode {
     ENTITY_FOUND(HttpStatus.BAD_REQUEST, ErrorMessageUtils.MSG_ENTITY_FOUND),
-    ENTITY_NOT_FOUND(HttpStatus.NOT_FOUND, ErrorMessageUtils.MSG_ENTITY_NOT_FOUND);
+    ENTITY_NOT_FOUND(HttpStatus.NOT_FOUND, ErrorMessageUtils.MSG_ENTITY_NOT_FOUND),
+    SERVICE_BUSY(HttpStatus.SERVICE_UNAVAILABLE, ErrorMessageUtils.MSG_SERVICE_BUSY);
 
     private HttpStatus httpStatus;
 
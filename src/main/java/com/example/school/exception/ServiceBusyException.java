@@ -0,0 +1,16 @@
+package com.example.school.exception;
+
+/**
+ * Raised when the repository scheduler has no free thread or queue slot for a request.
+ * Unchecked so it passes unwrapped through blocking operators such as
+ * {@code Flowable.blockingForEach}.
+ */
+public class ServiceBusyException extends RuntimeException {
+
+    public ServiceBusyException() {
+    }
+
+    public ServiceBusyException(String message) {
+        super(message);
+    }
+}
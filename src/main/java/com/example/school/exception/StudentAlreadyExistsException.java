@@ -0,0 +1,14 @@
+package com.example.school.exception;
+
+/**
+ * Preallocated, stackless duplicate-id signal for student creation. Suppression is disabled, so
+ * nothing a request attaches to the shared instance outlives it or reaches another request.
+ */
+public final class StudentAlreadyExistsException extends BadRequestException {
+
+    public static final StudentAlreadyExistsException INSTANCE = new StudentAlreadyExistsException();
+
+    private StudentAlreadyExistsException() {
+        super(null, null, false, false);
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.school.exception;
+
+import javax.persistence.EntityNotFoundException;
+
+/**
+ * Stackless not-found signal for the student lookup and write paths. Misses are a normal
+ * outcome there, so they should not pay for a stack walk each time. It is not shared:
+ * {@link EntityNotFoundException} offers no way to disable suppression, and a shared instance
+ * would collect suppressed exceptions across requests.
+ */
+public final class StudentNotFoundException extends EntityNotFoundException {
+
+    public StudentNotFoundException() {
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.school.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * A long-inactive student moved out of {@code students}, so the hot table and its indexes only
+ * hold current enrollment. The row is stamped with the change sequence of the move.
+ */
+@Entity
+@Table(name = "students_archive", indexes = @Index(name = "idx_students_archive_change_seq", columnList = "change_seq"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArchivedStudent {
+    @Id
+    @Column(name = "id")
+    private String id;
+
+    @Column(name = "name")
+    private String name;
+
+    @Column(name = "active")
+    private boolean active;
+
+    @Column(name = "version")
+    private long version;
+
+    @Column(name = "change_seq")
+    private long changeSeq;
+
+    public Student toStudent() {
+        return new Student(id, name, active, version, changeSeq);
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.school.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
@@ -9,10 +10,18 @@ import lombok.Setter;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
+import javax.persistence.Version;
+import java.time.Instant;
 
 @Entity
-@Table(name = "students")
+@Table(name = "students", indexes = {
+        @Index(name = "idx_students_active_id", columnList = "active, id"),
+        @Index(name = "idx_students_change_seq", columnList = "change_seq"),
+        @Index(name = "idx_students_active_updated_at", columnList = "active, updated_at")})
 @Getter
 @Setter
 @Builder
@@ -29,4 +38,38 @@ public class Student {
     @Column(name = "active")
     private boolean active;
 
+    @Version
+    @JsonIgnore
+    @Column(name = "version")
+    private long version;
+
+    @JsonIgnore
+    @Column(name = "change_seq")
+    private long changeSeq;
+
+    /**
+     * When the row was last written; set on every insert and update.
+     */
+    @JsonIgnore
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    public Student(String id, String name, boolean active) {
+        this(id, name, active, 0L);
+    }
+
+    public Student(String id, String name, boolean active, long version) {
+        this(id, name, active, version, 0L);
+    }
+
+    public Student(String id, String name, boolean active, long version, long changeSeq) {
+        this(id, name, active, version, changeSeq, null);
+    }
+
+    @PrePersist
+    @PreUpdate
+    void stampUpdatedAt() {
+        updatedAt = Instant.now();
+    }
+
 }
@@ -0,0 +1,25 @@
+package com.example.school.model;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+public class StudentBatchResult {
+    private int created;
+    private int rejected;
+    private List<String> conflicts = new ArrayList<>();
+
+    public void addCreated(int count) {
+        this.created += count;
+    }
+
+    public void addRejected() {
+        this.rejected++;
+    }
+
+    public void addConflict(String id) {
+        this.conflicts.add(id);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.school.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * One entry of the change feed: the latest state of a student, or its deletion.
+ */
+@Getter
+@AllArgsConstructor
+public class StudentChange {
+    private final String id;
+    private final String name;
+    private final boolean active;
+    private final boolean deleted;
+    private final long changeSeq;
+
+    public StudentChange(String id, String name, boolean active, long changeSeq) {
+        this(id, name, active, false, changeSeq);
+    }
+
+    public StudentChange(String id, long changeSeq) {
+        this(id, null, false, true, changeSeq);
+    }
+}
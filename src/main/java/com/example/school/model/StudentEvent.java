@@ -0,0 +1,45 @@
+package com.example.school.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * A student write as pushed on the change stream. The id is unique per process start and
+ * increases in publishing order, so it can be handed back as {@code Last-Event-ID}. A bulk
+ * import is pushed as one {@link Type#IMPORTED} event carrying every created student, so an
+ * import of any size costs subscribers a single event.
+ */
+@Getter
+@AllArgsConstructor
+public class StudentEvent {
+
+    public enum Type {
+        CREATED, UPDATED, DELETED, IMPORTED
+    }
+
+    private final String id;
+
+    @JsonIgnore
+    private final long sequence;
+
+    private final Type type;
+
+    private final StudentChange change;
+
+    private final List<StudentChange> changes;
+
+    public StudentEvent(String id, long sequence, Type type, StudentChange change) {
+        this(id, sequence, type, change, null);
+    }
+
+    /**
+     * Payload of the event: the change, or the list of changes of an import.
+     */
+    @JsonIgnore
+    public Object getData() {
+        return changes != null ? changes : change;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.school.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Immutable read model of a student. Listings are projected straight into it by the
+ * repository, so they never create managed entities.
+ */
+@Getter
+@AllArgsConstructor
+public class StudentResponse {
+    private final String id;
+    private final String name;
+    private final boolean active;
+}
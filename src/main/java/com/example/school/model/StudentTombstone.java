@@ -0,0 +1,52 @@
+package com.example.school.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * Records that a student was deleted, at the change sequence of the delete, so delta sync can
+ * report removals. Kept for the tombstone retention, see {@code StudentTombstonePruner}.
+ */
+@Entity
+@Table(name = "student_tombstones", indexes = {
+        @Index(name = "idx_student_tombstones_change_seq", columnList = "change_seq"),
+        @Index(name = "idx_student_tombstones_deleted_at", columnList = "deleted_at")})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class StudentTombstone {
+    @Id
+    @Column(name = "id")
+    private String id;
+
+    @Column(name = "change_seq")
+    private long changeSeq;
+
+    /**
+     * When the student was last deleted; set on every insert and update.
+     */
+    @Column(name = "deleted_at")
+    private Instant deletedAt;
+
+    public StudentTombstone(String id, long changeSeq) {
+        this(id, changeSeq, null);
+    }
+
+    @PrePersist
+    @PreUpdate
+    void stampDeletedAt() {
+        deletedAt = Instant.now();
+    }
+}
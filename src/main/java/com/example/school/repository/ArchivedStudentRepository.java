@@ -0,0 +1,38 @@
+package com.example.school.repository;
+
+import com.example.school.model.ArchivedStudent;
+import com.example.school.model.StudentChange;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ArchivedStudentRepository extends JpaRepository<ArchivedStudent, String> {
+
+    @Transactional(readOnly = true)
+    @Query("select a.id from ArchivedStudent a order by a.id")
+    List<String> findIds(Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select a.id from ArchivedStudent a where a.id > :after order by a.id")
+    List<String> findIdsAfter(@Param("after") String after, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select a.id from ArchivedStudent a where a.id in :ids")
+    List<String> findExistingIds(@Param("ids") Collection<String> ids);
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.school.model.StudentChange(a.id, a.name, a.active, a.changeSeq) from ArchivedStudent a"
+            + " where a.changeSeq > :since and a.changeSeq <= :until order by a.changeSeq")
+    List<StudentChange> findChanges(@Param("since") long since, @Param("until") long until, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select coalesce(max(a.changeSeq), 0) from ArchivedStudent a")
+    long findMaxChangeSeq();
+}
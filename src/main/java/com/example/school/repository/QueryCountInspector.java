@@ -0,0 +1,23 @@
+package com.example.school.repository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread, so callers can measure
+ * how many queries one operation issued. Registered through
+ * {@code hibernate.session_factory.statement_inspector}.
+ */
+public class QueryCountInspector implements StatementInspector {
+
+    private static final ThreadLocal<long[]> STATEMENTS = ThreadLocal.withInitial(() -> new long[1]);
+
+    public static long currentCount() {
+        return STATEMENTS.get()[0];
+    }
+
+    @Override
+    public String inspect(String sql) {
+        STATEMENTS.get()[0]++;
+        return sql;
+    }
+}
@@ -1,9 +1,79 @@
 package com.example.school.repository;
 
 import com.example.school.model.Student;
+import com.example.school.model.StudentChange;
+import com.example.school.model.StudentResponse;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 
 @Repository
-public interface StudentRepository extends JpaRepository<Student, String> {
+public interface StudentRepository extends JpaRepository<Student, String>, StudentRepositoryCustom {
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.school.model.StudentResponse(s.id, s.name, s.active) from Student s"
+            + " where s.active = true order by s.id")
+    List<StudentResponse> findActiveStudents();
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.school.model.StudentResponse(s.id, s.name, s.active) from Student s"
+            + " where s.active = true order by s.id")
+    List<StudentResponse> findActiveStudents(Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.school.model.StudentResponse(s.id, s.name, s.active) from Student s"
+            + " where s.active = true and s.id > :after order by s.id")
+    List<StudentResponse> findActiveStudentsAfter(@Param("after") String after, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.school.model.StudentResponse(s.id, s.name, s.active) from Student s"
+            + " where s.active = true and lower(s.name) like :namePattern escape '\\' order by s.id")
+    List<StudentResponse> searchActiveStudents(@Param("namePattern") String namePattern, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.school.model.StudentResponse(s.id, s.name, s.active) from Student s"
+            + " where s.active = true and lower(s.name) like :namePattern escape '\\' and s.id > :after"
+            + " order by s.id")
+    List<StudentResponse> searchActiveStudentsAfter(@Param("namePattern") String namePattern,
+                                                    @Param("after") String after, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select s.id from Student s order by s.id")
+    List<String> findIds(Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select s.id from Student s where s.id > :after order by s.id")
+    List<String> findIdsAfter(@Param("after") String after, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select s.id from Student s where s.active = false and s.updatedAt < :cutoff order by s.updatedAt")
+    List<String> findArchivableIds(@Param("cutoff") Instant cutoff, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select s.id from Student s where s.id in :ids")
+    List<String> findExistingIds(@Param("ids") Collection<String> ids);
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.school.model.StudentChange(s.id, s.name, s.active, s.changeSeq) from Student s"
+            + " where s.changeSeq > :since and s.changeSeq <= :until order by s.changeSeq")
+    List<StudentChange> findChanges(@Param("since") long since, @Param("until") long until, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select coalesce(max(s.changeSeq), 0) from Student s")
+    long findMaxChangeSeq();
+
+    @Transactional
+    @Modifying
+    @Query("update Student s set s.name = :name, s.active = :active, s.version = s.version + 1,"
+            + " s.changeSeq = :changeSeq, s.updatedAt = current_timestamp where s.id = :id")
+    int updateNameAndActive(@Param("id") String id, @Param("name") String name, @Param("active") boolean active,
+                            @Param("changeSeq") long changeSeq);
 }
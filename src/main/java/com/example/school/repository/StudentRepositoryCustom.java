@@ -0,0 +1,19 @@
+package com.example.school.repository;
+
+import com.example.school.model.Student;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+public interface StudentRepositoryCustom {
+    void insert(Student student);
+
+    void insertAll(List<Student> students);
+
+    int deleteWithTombstone(String id, long changeSeq);
+
+    int archive(Map<String, Long> changeSeqs, Instant cutoff);
+
+    int restore(String id, String name, boolean active, long changeSeq);
+}
@@ -0,0 +1,110 @@
+package com.example.school.repository;
+
+import com.example.school.model.ArchivedStudent;
+import com.example.school.model.Student;
+import com.example.school.model.StudentTombstone;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class StudentRepositoryCustomImpl implements StudentRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Inserts the student with a single statement. A duplicate id surfaces as a
+     * {@link org.springframework.dao.DataIntegrityViolationException} from the primary key.
+     */
+    @Override
+    @Transactional
+    public void insert(Student student) {
+        entityManager.persist(student);
+        entityManager.flush();
+    }
+
+    /**
+     * Persists the students as new rows. Unlike {@code saveAll}, which merges entities with an
+     * assigned id and therefore selects each one first, this only issues inserts, which Hibernate
+     * groups into JDBC batches of {@code hibernate.jdbc.batch_size}.
+     */
+    @Override
+    @Transactional
+    public void insertAll(List<Student> students) {
+        for (Student student : students)
+            entityManager.persist(student);
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    /**
+     * Deletes the student, whether current or archived, and, in the same transaction, records a
+     * tombstone at the change sequence of the delete so delta sync can report it.
+     */
+    @Override
+    @Transactional
+    public int deleteWithTombstone(String id, long changeSeq) {
+        int deleted = entityManager.createQuery("delete from Student s where s.id = :id")
+                .setParameter("id", id)
+                .executeUpdate();
+        deleted += entityManager.createQuery("delete from ArchivedStudent a where a.id = :id")
+                .setParameter("id", id)
+                .executeUpdate();
+        if (deleted > 0)
+            entityManager.merge(new StudentTombstone(id, changeSeq));
+        return deleted;
+    }
+
+    /**
+     * Moves the given students to the archive, stamping each with its entry in
+     * {@code changeSeqs}. The rows are locked first and skipped unless they are still inactive
+     * and were last written before {@code cutoff}, so an update racing with the move either lands
+     * before it and keeps the student, or waits for it and finds the student archived.
+     */
+    @Override
+    @Transactional
+    public int archive(Map<String, Long> changeSeqs, Instant cutoff) {
+        List<Student> students = entityManager.createQuery("select s from Student s where s.id in :ids"
+                + " and s.active = false and s.updatedAt < :cutoff", Student.class)
+                .setParameter("ids", changeSeqs.keySet())
+                .setParameter("cutoff", cutoff)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList();
+        if (students.isEmpty())
+            return 0;
+        List<String> ids = new ArrayList<>(students.size());
+        for (Student student : students) {
+            entityManager.persist(new ArchivedStudent(student.getId(), student.getName(), student.isActive(),
+                    student.getVersion(), changeSeqs.get(student.getId())));
+            ids.add(student.getId());
+        }
+        entityManager.flush();
+        entityManager.clear();
+        entityManager.createQuery("delete from Student s where s.id in :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+        return ids.size();
+    }
+
+    /**
+     * Moves an archived student back to {@code students} with the given state, or returns 0
+     * when the id is not archived.
+     */
+    @Override
+    @Transactional
+    public int restore(String id, String name, boolean active, long changeSeq) {
+        ArchivedStudent archived = entityManager.find(ArchivedStudent.class, id, LockModeType.PESSIMISTIC_WRITE);
+        if (archived == null)
+            return 0;
+        entityManager.remove(archived);
+        entityManager.persist(new Student(id, name, active, archived.getVersion() + 1, changeSeq));
+        entityManager.flush();
+        return 1;
+    }
+}
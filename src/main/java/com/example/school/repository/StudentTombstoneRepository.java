@@ -0,0 +1,42 @@
+package com.example.school.repository;
+
+import com.example.school.model.StudentChange;
+import com.example.school.model.StudentTombstone;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface StudentTombstoneRepository extends JpaRepository<StudentTombstone, String> {
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.school.model.StudentChange(t.id, t.changeSeq) from StudentTombstone t"
+            + " where t.changeSeq > :since and t.changeSeq <= :until order by t.changeSeq")
+    List<StudentChange> findChanges(@Param("since") long since, @Param("until") long until, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select coalesce(max(t.changeSeq), 0) from StudentTombstone t")
+    long findMaxChangeSeq();
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.school.model.StudentChange(t.id, t.changeSeq) from StudentTombstone t"
+            + " where t.deletedAt < :cutoff and t.changeSeq <= :until order by t.deletedAt")
+    List<StudentChange> findPrunable(@Param("cutoff") Instant cutoff, @Param("until") long until, Pageable pageable);
+
+    /**
+     * Deletes the given tombstones unless the student was deleted again since, which stamps the
+     * tombstone anew.
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from StudentTombstone t where t.id in :ids and t.deletedAt < :cutoff and t.changeSeq <= :until")
+    int prune(@Param("ids") Collection<String> ids, @Param("cutoff") Instant cutoff, @Param("until") long until);
+}
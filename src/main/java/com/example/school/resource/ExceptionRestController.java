@@ -2,7 +2,10 @@ package com.example.school.resource;
 
 import com.example.school.exception.BadRequestException;
 import com.example.school.exception.ErrorCode;
+import com.example.school.exception.ServiceBusyException;
 import com.example.school.util.DataResponse;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -14,12 +17,27 @@ import javax.persistence.EntityNotFoundException;
 public class ExceptionRestController {
     @ExceptionHandler(EntityNotFoundException.class)
     public ResponseEntity<DataResponse> handleEntityNotFoundException() {
+        countError(ErrorCode.ENTITY_NOT_FOUND);
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(DataResponse.error(ErrorCode.ENTITY_NOT_FOUND, ErrorCode.ENTITY_NOT_FOUND.getMessage() ));
     }
 
     @ExceptionHandler(BadRequestException.class)
     public ResponseEntity<DataResponse> handleBadRequestException() {
+        countError(ErrorCode.ENTITY_FOUND);
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(DataResponse.error(ErrorCode.ENTITY_FOUND, ErrorCode.ENTITY_FOUND.getMessage()));
     }
 
+    @ExceptionHandler(ServiceBusyException.class)
+    public ResponseEntity<DataResponse> handleServiceBusyException() {
+        countError(ErrorCode.SERVICE_BUSY);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1")
+                .body(DataResponse.error(ErrorCode.SERVICE_BUSY, ErrorCode.SERVICE_BUSY.getMessage()));
+    }
+
+    private void countError(ErrorCode errorCode) {
+        // the global registry is the composite Spring Boot binds its registries to, and a no-op without Actuator
+        Metrics.counter("students.errors", "code", errorCode.name(),
+                "status", String.valueOf(errorCode.getHttpStatus().value())).increment();
+    }
+
 }
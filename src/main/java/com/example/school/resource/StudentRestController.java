@@ -1,12 +1,28 @@
 package com.example.school.resource;
 
+import com.example.school.exception.ServiceBusyException;
 import com.example.school.model.Student;
+import com.example.school.model.StudentBatchResult;
+import com.example.school.model.StudentChange;
+import com.example.school.model.StudentResponse;
 import com.example.school.service.StudentService;
 import com.example.school.util.DataResponse;
+import com.example.school.util.ETags;
+import com.example.school.util.RepositoryScheduler;
+import com.example.school.util.StudentMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.reactivex.Flowable;
 import io.reactivex.Single;
-import io.reactivex.schedulers.Schedulers;
-import org.springframework.beans.BeanUtils;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.exceptions.MissingBackpressureException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -15,74 +31,234 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 @RestController
+@Profile("!reactive")
 @RequestMapping(value = "/students")
 public class StudentRestController {
 
+    private static final String DEFAULT_PAGE_SIZE = "50";
+
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private static final String LAST_EVENT_ID = "Last-Event-ID";
+
     @Autowired
     private StudentService studentService;
 
+    @Autowired
+    private RepositoryScheduler repositoryScheduler;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${school.students.stream.timeout-millis:1800000}")
+    private long streamTimeoutMillis;
+
+    @Value("${school.students.stream.write-timeout-millis:5000}")
+    private long streamWriteTimeoutMillis;
+
+    @Value("${school.students.export.max-concurrent:2}")
+    private int maxConcurrentExports;
+
+    private final AtomicInteger activeExports = new AtomicInteger();
+
     @PostMapping()
     public Single<ResponseEntity> newStudent(
         @RequestBody Student newStudentRequest) {
-        return studentService.newStudent(newStudentRequest).subscribeOn(Schedulers.io()).map(
+        return repositoryScheduler.schedule("newStudent", studentService.newStudent(newStudentRequest)).map(
             student -> ResponseEntity.created(URI.create("/students/" + student))
                     .body(DataResponse.successNoData()));
     }
 
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Single<ResponseEntity<DataResponse<StudentBatchResult>>> newStudents(
+        @RequestBody List<Student> newStudentsRequest) {
+        return importStudents(newStudentsRequest);
+    }
+
+    @PostMapping(value = "/batch", consumes = APPLICATION_NDJSON_VALUE)
+    public Single<ResponseEntity<DataResponse<StudentBatchResult>>> newStudentsNdjson(InputStream newStudentsRequest)
+            throws IOException {
+        List<Student> students = objectMapper.readerFor(Student.class).<Student>readValues(newStudentsRequest).readAll();
+        return importStudents(students);
+    }
+
+    private Single<ResponseEntity<DataResponse<StudentBatchResult>>> importStudents(List<Student> students) {
+        return repositoryScheduler.schedule("newStudents", studentService.newStudents(students))
+                .map(batchResult -> ResponseEntity.ok(DataResponse.successWithData(batchResult)));
+    }
+
     @PutMapping(value = "/{studentId}")
     public Single<ResponseEntity> updateStudent(@PathVariable(value = "studentId") String studentId,
                                                               @RequestBody Student updateStudentRequest) {
-        return studentService.updateStudent(toUpdateStudent(studentId, updateStudentRequest))
-                .subscribeOn(Schedulers.io())
+        Student updateStudent = StudentMapper.toStudent(studentId, updateStudentRequest);
+        return repositoryScheduler.schedule("updateStudent", studentService.updateStudent(updateStudent))
                 .toSingle(() -> ResponseEntity.ok(DataResponse.successNoData()));
     }
 
-    private Student toUpdateStudent(String studentId, Student updateStudentRequest) {
-        Student updateStudent = new Student();
-        BeanUtils.copyProperties(updateStudentRequest, updateStudent);
-        updateStudent.setId(studentId);
-        return updateStudent;
-    }
 
     @GetMapping()
-    public  Single<ResponseEntity<DataResponse<List<Student>>>> getAllStudents() {
-        return studentService.getAllStudents()
-                .subscribeOn(Schedulers.io())
-        .map(studentResponses -> ResponseEntity.ok(DataResponse.successWithData(toStudentResponseList(studentResponses))));
+    public  Single<ResponseEntity<DataResponse<List<StudentResponse>>>> getAllStudents(
+            @RequestParam(value = "size", defaultValue = DEFAULT_PAGE_SIZE) int size,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = ETags.ofPage(studentService.getStudentsVersion(), after, size);
+        if (ETags.matches(ifNoneMatch, eTag))
+            return Single.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag)
+                    .<DataResponse<List<StudentResponse>>>build());
+        return repositoryScheduler.schedule("getActiveStudents", studentService.getActiveStudents(after, size))
+        .map(studentPage -> ResponseEntity.ok().eTag(eTag).body(DataResponse.successWithData(studentPage.getItems(),
+                studentPage.getNextCursor())));
+    }
+
+    @GetMapping(value = "/changes")
+    public Single<ResponseEntity<DataResponse<List<StudentChange>>>> getChanges(
+            @RequestParam(value = "since", defaultValue = "0") long since,
+            @RequestParam(value = "size", defaultValue = DEFAULT_PAGE_SIZE) int size) {
+        return repositoryScheduler.schedule("getChanges", studentService.getChanges(since, size))
+                .map(changePage -> ResponseEntity.ok(DataResponse.successWithData(changePage.getItems(),
+                        changePage.getNextCursor())));
+    }
+
+    @GetMapping(value = "/search")
+    public Single<ResponseEntity<DataResponse<List<StudentResponse>>>> searchStudents(
+            @RequestParam(value = "q") String query,
+            @RequestParam(value = "size", defaultValue = DEFAULT_PAGE_SIZE) int size,
+            @RequestParam(value = "after", required = false) String after) {
+        return repositoryScheduler.schedule("searchStudents", studentService.searchStudents(query, after, size))
+                .map(studentPage -> ResponseEntity.ok(DataResponse.successWithData(studentPage.getItems(),
+                        studentPage.getNextCursor())));
+    }
+
+    @GetMapping(params = "ids")
+    public Single<ResponseEntity<DataResponse<List<StudentResponse>>>> getStudents(
+            @RequestParam(value = "ids") List<String> ids) {
+        return lookupStudents(ids);
     }
 
-    private List<Student> toStudentResponseList(List<Student> studentResponseList) {
-        return studentResponseList
-                .stream()
-                .map(this::toStudentResponse)
-                .collect(Collectors.toList());
+    @PostMapping(value = "/lookup")
+    public Single<ResponseEntity<DataResponse<List<StudentResponse>>>> lookupStudents(@RequestBody List<String> ids) {
+        return repositoryScheduler.schedule("getStudents", studentService.getStudents(ids))
+                .map(students -> ResponseEntity.ok(DataResponse.successWithData(students.stream()
+                        .map(StudentMapper::toStudentResponse)
+                        .collect(Collectors.toList()))));
     }
 
-    private Student toStudentResponse(Student studentResponse) {
-        Student student = new Student();
-        BeanUtils.copyProperties(studentResponse, student);
-        return student;
+    /**
+     * Streams every student. The body is written on a thread of the MVC async executor
+     * ({@code spring.task.execution.pool.*}), which it blocks for the whole export, so at most
+     * {@code school.students.export.max-concurrent} exports run at once and the rest are
+     * refused as busy rather than starving the other async requests of threads.
+     */
+    @GetMapping(value = "/export", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportStudents() {
+        if (activeExports.incrementAndGet() > maxConcurrentExports) {
+            activeExports.decrementAndGet();
+            throw new ServiceBusyException("Too many concurrent exports");
+        }
+        Flowable<Student> students = repositoryScheduler.schedule("exportStudents", studentService.exportStudents());
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .body(outputStream -> {
+                    try {
+                        writeNdjson(students, outputStream);
+                    } finally {
+                        activeExports.decrementAndGet();
+                    }
+                });
+    }
+
+    private void writeNdjson(Flowable<Student> students, OutputStream outputStream) throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(Student.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            // every record ends with a newline, the root separator would only go between records
+            generator.setRootValueSeparator(null);
+            // blockingForEach only requests what has been written and cancels the cursor if the client goes away
+            students.blockingForEach(student -> {
+                writer.writeValue(generator, student);
+                generator.writeRaw('\n');
+            });
+        }
+    }
+
+    /**
+     * Server-sent events of student writes. A client that takes longer than the write timeout to
+     * accept an event, or falls behind its buffer, is sent a final {@code reset} event naming the
+     * last event it received, and the stream ends normally. The client resumes with
+     * {@code Last-Event-ID} or from {@code /students/changes}.
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamStudents(@RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+        AtomicReference<String> lastSentId = new AtomicReference<>(lastEventId);
+        Disposable subscription = studentService.streamChanges(lastEventId).subscribe(
+                event -> {
+                    long start = System.nanoTime();
+                    emitter.send(SseEmitter.event()
+                            .id(event.getId())
+                            .name(event.getType().name().toLowerCase(Locale.ROOT))
+                            .data(event.getData(), MediaType.APPLICATION_JSON));
+                    lastSentId.set(event.getId());
+                    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    if (elapsedMillis > streamWriteTimeoutMillis)
+                        throw new MissingBackpressureException("Client took " + elapsedMillis + " ms to accept an event");
+                },
+                error -> reset(emitter, lastSentId.get()),
+                emitter::complete);
+        emitter.onCompletion(subscription::dispose);
+        emitter.onTimeout(subscription::dispose);
+        emitter.onError(error -> subscription.dispose());
+        return emitter;
+    }
+
+    private static void reset(SseEmitter emitter, String lastEventId) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("reset")
+                    .data(Collections.singletonMap("lastEventId", lastEventId), MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            // the client is gone or the stream already ended, there is nobody left to tell
+        }
+        emitter.complete();
     }
 
     @GetMapping(value = "/{studentId}")
-    public Single<ResponseEntity<DataResponse<Student>>> getStudentDetail(@PathVariable(value = "studentId") String studentId) {
-        return studentService.getStudentDetail(studentId)
-                .subscribeOn(Schedulers.io())
-                .map(studentResponse -> ResponseEntity.ok(DataResponse.successWithData(toStudentResponse(studentResponse))));
+    public Single<ResponseEntity<DataResponse<StudentResponse>>> getStudentDetail(@PathVariable(value = "studentId") String studentId,
+                                                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return repositoryScheduler.schedule("getStudentDetail", studentService.getStudentDetail(studentId))
+                .map(studentResponse -> toStudentDetailResponse(studentResponse, ifNoneMatch));
+    }
+
+    private ResponseEntity<DataResponse<StudentResponse>> toStudentDetailResponse(Student student, String ifNoneMatch) {
+        String eTag = ETags.ofStudent(student);
+        if (ETags.matches(ifNoneMatch, eTag))
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        return ResponseEntity.ok().eTag(eTag).body(DataResponse.successWithData(StudentMapper.toStudentResponse(student)));
     }
 
     @DeleteMapping(value = "/{studentId}")
     public Single<ResponseEntity> deleteStudent(@PathVariable(value = "studentId") String studentId) {
-        return studentService.deleteStudent(studentId)
-                .subscribeOn(Schedulers.io())
+        return repositoryScheduler.schedule("deleteStudent", studentService.deleteStudent(studentId))
                 .toSingle(() -> ResponseEntity.ok(DataResponse.successNoData()));
     }
 
@@ -1,7 +1,13 @@
 package com.example.school.service;
 
 import com.example.school.model.Student;
+import com.example.school.model.StudentBatchResult;
+import com.example.school.model.StudentChange;
+import com.example.school.model.StudentEvent;
+import com.example.school.model.StudentResponse;
+import com.example.school.util.CursorPage;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Single;
 
 import java.util.List;
@@ -9,11 +15,27 @@ import java.util.List;
 public interface StudentService {
     Single<String> newStudent(Student student);
 
+    Single<StudentBatchResult> newStudents(List<Student> students);
+
     Completable updateStudent(Student student);
 
-    Single<List<Student>> getAllStudents();
+    Single<List<StudentResponse>> getAllStudents();
+
+    Single<CursorPage<StudentResponse>> getActiveStudents(String after, int size);
+
+    Single<CursorPage<StudentResponse>> searchStudents(String query, String after, int size);
+
+    Single<CursorPage<StudentChange>> getChanges(long since, int size);
+
+    Flowable<StudentEvent> streamChanges(String lastEventId);
+
+    String getStudentsVersion();
 
     Single<Student> getStudentDetail(String id);
 
+    Single<List<Student>> getStudents(List<String> ids);
+
+    Flowable<Student> exportStudents();
+
     Completable deleteStudent(String id);
 }
@@ -0,0 +1,126 @@
+package com.example.school.service.impl;
+
+import com.example.school.model.Student;
+import com.example.school.model.StudentResponse;
+import com.example.school.util.CursorPage;
+import com.example.school.util.StudentMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Opt-in, copy-on-write snapshot of the active students sorted by id.
+ * <p>
+ * Readers only dereference a volatile array, so listing is lock-free and never touches the
+ * database. Writers are serialized and publish a new array, which keeps the write path O(n)
+ * and makes this a fit for read-heavy rosters rather than write-heavy ones. Writes are applied
+ * in change sequence order per student, whatever order they arrive in. When disabled, every
+ * method is a no-op and the service keeps querying the database.
+ */
+@Component
+public class ActiveStudentIndex {
+
+    private static final StudentResponse[] EMPTY = new StudentResponse[0];
+
+    private static final Comparator<StudentResponse> BY_ID = Comparator.comparing(StudentResponse::getId);
+
+    private final boolean enabled;
+
+    private final AppliedChangeSeqs appliedChangeSeqs = new AppliedChangeSeqs();
+
+    private volatile StudentResponse[] snapshot = EMPTY;
+
+    @Autowired
+    public ActiveStudentIndex(@Value("${school.students.active-index.enabled:false}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void load(List<StudentResponse> activeStudents) {
+        if (!enabled)
+            return;
+        List<StudentResponse> students = new ArrayList<>(activeStudents.size());
+        for (StudentResponse student : activeStudents) {
+            if (student.isActive())
+                students.add(student);
+        }
+        students.sort(BY_ID);
+        snapshot = students.toArray(EMPTY);
+        appliedChangeSeqs.clear();
+    }
+
+    public List<StudentResponse> all() {
+        return Collections.unmodifiableList(Arrays.asList(snapshot));
+    }
+
+    public CursorPage<StudentResponse> page(String after, int size) {
+        StudentResponse[] students = snapshot;
+        int from = after == null ? 0 : firstAfter(students, after);
+        int to = Math.min(from + size, students.length);
+        List<StudentResponse> items = Collections.unmodifiableList(Arrays.asList(students).subList(from, to));
+        return new CursorPage<>(items, to < students.length && to > from ? students[to - 1].getId() : null);
+    }
+
+    /**
+     * Applies the state of a student as of its change sequence: active students are added or
+     * replaced, inactive ones are dropped. A state older than the one applied last is ignored.
+     */
+    public void apply(Student student) {
+        applyAll(Collections.singletonList(student));
+    }
+
+    public synchronized void applyAll(Collection<Student> changedStudents) {
+        if (!enabled || changedStudents.isEmpty())
+            return;
+        List<StudentResponse> students = new ArrayList<>(Arrays.asList(snapshot));
+        for (Student changedStudent : changedStudents) {
+            if (!appliedChangeSeqs.advance(changedStudent.getId(), changedStudent.getChangeSeq()))
+                continue;
+            StudentResponse student = StudentMapper.toStudentResponse(changedStudent);
+            int index = Collections.binarySearch(students, student, BY_ID);
+            if (student.isActive() && index >= 0)
+                students.set(index, student);
+            else if (student.isActive())
+                students.add(-index - 1, student);
+            else if (index >= 0)
+                students.remove(index);
+        }
+        snapshot = students.toArray(EMPTY);
+    }
+
+    public synchronized void remove(String id, long changeSeq) {
+        if (!enabled || !appliedChangeSeqs.advance(id, changeSeq))
+            return;
+        StudentResponse[] students = snapshot;
+        int index = Arrays.binarySearch(students, new StudentResponse(id, null, false), BY_ID);
+        if (index < 0)
+            return;
+        StudentResponse[] next = new StudentResponse[students.length - 1];
+        System.arraycopy(students, 0, next, 0, index);
+        System.arraycopy(students, index + 1, next, index, students.length - index - 1);
+        snapshot = next;
+    }
+
+    private int firstAfter(StudentResponse[] students, String after) {
+        int low = 0;
+        int high = students.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (students[middle].getId().compareTo(after) <= 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.school.service.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Change sequence of the last write an in-memory view applied, per student.
+ * <p>
+ * Writes reach the views after they commit, so two writes of one student can arrive in the
+ * opposite order they committed in. The older one is recognized here and skipped. Not
+ * thread-safe, the owning view serializes its writers. Holds one entry per student written
+ * since the view was loaded.
+ */
+class AppliedChangeSeqs {
+
+    private final Map<String, Long> changeSeqs = new HashMap<>();
+
+    /**
+     * Records a write of the student, or returns false when a later write was applied already.
+     */
+    boolean advance(String id, long changeSeq) {
+        Long applied = changeSeqs.get(id);
+        if (applied != null && applied > changeSeq)
+            return false;
+        changeSeqs.put(id, changeSeq);
+        return true;
+    }
+
+    void clear() {
+        changeSeqs.clear();
+    }
+}
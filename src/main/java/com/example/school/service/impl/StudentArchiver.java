@@ -0,0 +1,140 @@
+package com.example.school.service.impl;
+
+import com.example.school.repository.StudentRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in background job moving long-inactive students to {@code students_archive} in batches
+ * of {@code batchSize}, every {@code intervalSeconds}.
+ * <p>
+ * A student is long-inactive when it is inactive and its row was last written more than
+ * {@code inactiveAfterSeconds} ago, going by the {@code updated_at} column every write stamps,
+ * so restarts do not delay archiving. Each move takes a fresh change sequence per row, which is
+ * how delta sync and the read replica learn about it.
+ */
+@Slf4j
+@Component
+@Profile("!reactive")
+public class StudentArchiver {
+
+    private final StudentRepository studentRepository;
+
+    private final StudentShards studentShards;
+
+    private final StudentChangeSequence studentChangeSequence;
+
+    private final boolean enabled;
+
+    private final long inactiveAfterSeconds;
+
+    private final int batchSize;
+
+    private final ScheduledExecutorService archiver;
+
+    @Autowired
+    public StudentArchiver(StudentRepository studentRepository, StudentShards studentShards,
+                           StudentChangeSequence studentChangeSequence,
+                           @Value("${school.students.archive.enabled:false}") boolean enabled,
+                           @Value("${school.students.archive.inactive-after-seconds:604800}") long inactiveAfterSeconds,
+                           @Value("${school.students.archive.interval-seconds:60}") long intervalSeconds,
+                           @Value("${school.students.archive.batch-size:500}") int batchSize) {
+        this.studentRepository = studentRepository;
+        this.studentShards = studentShards;
+        this.studentChangeSequence = studentChangeSequence;
+        this.enabled = enabled;
+        this.inactiveAfterSeconds = inactiveAfterSeconds;
+        this.batchSize = batchSize;
+        this.archiver = enabled && intervalSeconds > 0 ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "student-archiver");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        if (archiver != null)
+            archiver.scheduleWithFixedDelay(this::archiveQuietly, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Moves an archived student back to {@code students} with the given state. Returns 0 when
+     * the archive is disabled or the student is not archived.
+     */
+    public int restore(String id, String name, boolean active, long changeSeq) {
+        if (!enabled)
+            return 0;
+        return studentShards.onShardOf(id, () -> studentRepository.restore(id, name, active, changeSeq));
+    }
+
+    /**
+     * Archives every student that is inactive and was last written more than
+     * {@code inactiveAfterSeconds} ago. Returns how many students were moved.
+     */
+    public synchronized int archive() {
+        Instant cutoff = Instant.now().minusSeconds(inactiveAfterSeconds);
+        int archived = 0;
+        for (int shardArchived : studentShards.onEach(() -> archiveShard(cutoff)))
+            archived += shardArchived;
+        return archived;
+    }
+
+    private int archiveShard(Instant cutoff) {
+        int archived = 0;
+        Pageable pageable = PageRequest.of(0, batchSize);
+        List<String> ids;
+        do {
+            ids = studentRepository.findArchivableIds(cutoff, pageable);
+            if (ids.isEmpty())
+                break;
+            Map<String, Long> changeSeqs = new HashMap<>();
+            for (String id : ids)
+                changeSeqs.put(id, studentChangeSequence.begin());
+            int moved;
+            try {
+                moved = studentRepository.archive(changeSeqs, cutoff);
+            } finally {
+                for (long changeSeq : changeSeqs.values())
+                    studentChangeSequence.end(changeSeq);
+            }
+            archived += moved;
+            // candidates read from a lagging replica can all be gone already
+            if (moved == 0)
+                break;
+        } while (ids.size() == batchSize);
+        return archived;
+    }
+
+    private void archiveQuietly() {
+        try {
+            int archived = archive();
+            if (archived > 0)
+                log.info("Archived {} inactive students", archived);
+        } catch (RuntimeException e) {
+            log.warn("Archiving inactive students failed, retrying on the next run", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (archiver == null)
+            return;
+        archiver.shutdown();
+        archiver.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
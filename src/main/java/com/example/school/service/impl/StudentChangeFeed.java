@@ -0,0 +1,154 @@
+package com.example.school.service.impl;
+
+import com.example.school.exception.ServiceBusyException;
+import com.example.school.model.StudentChange;
+import com.example.school.model.StudentEvent;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.exceptions.MissingBackpressureException;
+import io.reactivex.processors.ReplayProcessor;
+import io.reactivex.schedulers.Schedulers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Push feed of student writes backed by a bounded replay buffer.
+ * <p>
+ * Event ids are {@code <process epoch>-<sequence>}. A subscriber resuming with an id from this
+ * process gets every buffered event after it; an id from an earlier process gets the whole
+ * buffer, and no id gets live events only. Events older than the buffer are not replayed;
+ * clients recover those through the change cursor carried in every event. The replayed events
+ * are a snapshot delivered as the subscriber requests them; live events follow, and a subscriber
+ * that falls {@code consumerBufferSize} live events behind, or so far behind while catching up
+ * that live events left the buffer, is failed with a {@link MissingBackpressureException} and
+ * dropped instead of holding back writers or growing without bound.
+ * <p>
+ * Delivery runs off the publishing thread. A subscriber only holds a delivery thread while it
+ * has events to write, and the pool has one thread per allowed subscriber, so a client that
+ * stops reading blocks its own writes and never those of another subscriber. At most
+ * {@code maxSubscribers} streams are open at a time.
+ */
+@Component
+public class StudentChangeFeed {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    private final ReplayProcessor<StudentEvent> events;
+
+    private final int consumerBufferSize;
+
+    private final int maxSubscribers;
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    private final ThreadPoolExecutor delivery;
+
+    private final Scheduler deliveryScheduler;
+
+    private long lastSequence;
+
+    @Autowired
+    public StudentChangeFeed(@Value("${school.students.stream.replay-size:1024}") int replaySize,
+                             @Value("${school.students.stream.consumer-buffer-size:256}") int consumerBufferSize,
+                             @Value("${school.students.stream.max-subscribers:256}") int maxSubscribers) {
+        this.events = ReplayProcessor.createWithSize(replaySize);
+        this.consumerBufferSize = consumerBufferSize;
+        this.maxSubscribers = maxSubscribers;
+        AtomicInteger threadCount = new AtomicInteger();
+        // threads time out while their subscribers are idle, so open streams hold none
+        this.delivery = new ThreadPoolExecutor(maxSubscribers, maxSubscribers, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "student-feed-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.delivery.allowCoreThreadTimeOut(true);
+        this.deliveryScheduler = Schedulers.from(delivery);
+    }
+
+    /**
+     * Publishes a committed write. Serialized so that event ids follow publishing order.
+     */
+    public synchronized void publish(StudentEvent.Type type, StudentChange change) {
+        lastSequence++;
+        events.onNext(new StudentEvent(epoch + "-" + lastSequence, lastSequence, type, change));
+    }
+
+    /**
+     * Publishes the students created by one import as a single event, however many there are.
+     */
+    public synchronized void publishImport(List<StudentChange> changes) {
+        if (changes.isEmpty())
+            return;
+        lastSequence++;
+        events.onNext(new StudentEvent(epoch + "-" + lastSequence, lastSequence, StudentEvent.Type.IMPORTED, null,
+                Collections.unmodifiableList(new ArrayList<>(changes))));
+    }
+
+    /**
+     * Opens a stream, or fails right away with {@link ServiceBusyException} when
+     * {@code maxSubscribers} streams are already open.
+     */
+    public Flowable<StudentEvent> subscribe(String lastEventId) {
+        if (subscribers.get() >= maxSubscribers)
+            throw new ServiceBusyException("Too many open student streams");
+        return Flowable.defer(() -> {
+            long resumeAfter = resumeAfter(lastEventId);
+            List<StudentEvent> backlog = new ArrayList<>();
+            for (StudentEvent event : events.getValues(new StudentEvent[0])) {
+                if (event.getSequence() > resumeAfter)
+                    backlog.add(event);
+            }
+            long liveAfter = backlog.isEmpty() ? resumeAfter : backlog.get(backlog.size() - 1).getSequence();
+            return Flowable.fromIterable(backlog).concatWith(live(liveAfter));
+        }).observeOn(deliveryScheduler)
+                .doOnSubscribe(subscription -> subscribers.incrementAndGet())
+                .doFinally(subscribers::decrementAndGet);
+    }
+
+    /**
+     * Events after {@code sequence}, buffering at most {@code consumerBufferSize} of them for
+     * the subscriber.
+     */
+    private Flowable<StudentEvent> live(long sequence) {
+        return Flowable.defer(() -> {
+            AtomicLong expected = new AtomicLong(sequence + 1);
+            return events.filter(event -> event.getSequence() > sequence)
+                    .doOnNext(event -> {
+                        if (event.getSequence() != expected.getAndIncrement())
+                            throw new MissingBackpressureException("Events after " + sequence + " left the replay buffer");
+                    });
+        }).onBackpressureBuffer(consumerBufferSize);
+    }
+
+    private synchronized long resumeAfter(String lastEventId) {
+        if (lastEventId == null)
+            return lastSequence;
+        String prefix = epoch + "-";
+        if (!lastEventId.startsWith(prefix))
+            return 0L;
+        try {
+            // an id from the future resumes live rather than waiting for its sequence
+            return Math.min(Long.parseLong(lastEventId.substring(prefix.length())), lastSequence);
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        delivery.shutdown();
+        delivery.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
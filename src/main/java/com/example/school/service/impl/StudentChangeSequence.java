@@ -0,0 +1,46 @@
+package com.example.school.service.impl;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Hands out the change sequence numbers stamped on every student write and tracks which of
+ * them are still in flight.
+ * <p>
+ * Writes commit out of order, so the highest sequence seen is not a safe sync cursor: a write
+ * holding a lower number could still commit after it. {@link #committed()} therefore returns
+ * the highest number below every in-flight write, and delta sync never reads past it.
+ */
+@Component
+public class StudentChangeSequence {
+
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+
+    private long last;
+
+    /**
+     * Continues numbering after the highest sequence already stored.
+     */
+    public synchronized void start(long lastStored) {
+        last = Math.max(last, lastStored);
+    }
+
+    public synchronized long begin() {
+        long changeSeq = ++last;
+        inFlight.add(changeSeq);
+        return changeSeq;
+    }
+
+    /**
+     * Marks a write as finished, whether it committed or failed.
+     */
+    public void end(long changeSeq) {
+        inFlight.remove(changeSeq);
+    }
+
+    public synchronized long committed() {
+        Long oldest = inFlight.ceiling(Long.MIN_VALUE);
+        return oldest == null ? last : oldest - 1;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.school.service.impl;
+
+import com.example.school.model.Student;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded read-through cache for student details, evicting with Caffeine's W-TinyLFU policy.
+ * <p>
+ * Loads are not atomic with writes, so a lookup that read the row before a concurrent write
+ * committed could put the old value back after the writer invalidated it. Every invalidation
+ * bumps a per-stripe epoch and {@link #put(Student, long)} drops its own entry again when the
+ * epoch moved while it was loading.
+ */
+@Component
+public class StudentDetailCache {
+
+    private static final int EPOCH_STRIPES = 64;
+
+    private final Cache<String, Student> cache;
+
+    private final AtomicLongArray epochs = new AtomicLongArray(EPOCH_STRIPES);
+
+    @Autowired
+    public StudentDetailCache(@Value("${school.students.cache.maximum-size:10000}") long maximumSize,
+                              @Value("${school.students.cache.expire-after-write-seconds:300}") long expireAfterWriteSeconds) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public Student getIfPresent(String id) {
+        return cache.getIfPresent(id);
+    }
+
+    /**
+     * Returns the epoch to hand back to {@link #put(Student, long)} once the student is loaded.
+     */
+    public long epoch(String id) {
+        return epochs.get(stripe(id));
+    }
+
+    public void put(Student student, long epoch) {
+        cache.put(student.getId(), student);
+        if (epochs.get(stripe(student.getId())) != epoch)
+            cache.invalidate(student.getId());
+    }
+
+    public void invalidate(String id) {
+        epochs.incrementAndGet(stripe(id));
+        cache.invalidate(id);
+    }
+
+    public Cache<String, Student> getNativeCache() {
+        return cache;
+    }
+
+    private int stripe(String id) {
+        return (id.hashCode() & Integer.MAX_VALUE) % EPOCH_STRIPES;
+    }
+}
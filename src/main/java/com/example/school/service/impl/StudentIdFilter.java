@@ -0,0 +1,227 @@
+package com.example.school.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Opt-in counting Bloom filter over the ids of every stored student.
+ * <p>
+ * {@link #mightContain} never answers {@code false} for a stored id, so a negative answer lets
+ * the service skip the database entirely; a positive answer may be wrong with roughly the
+ * configured false positive rate. Counters are 4 bits packed sixteen to a long and saturate
+ * rather than overflow, so a saturated counter is never decremented. Inserts and deletes of
+ * the same id are serialized through lock stripes and count an id only around the write that
+ * stores or removes it, which keeps a delete racing a re-create from dropping a live id. Until
+ * {@link #loaded()} is called, and whenever disabled, every id is reported as possibly present.
+ */
+@Component
+public class StudentIdFilter {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private static final long COUNTER_MASK = 0xFL;
+
+    private final boolean enabled;
+
+    private final int counterCount;
+
+    private final int hashCount;
+
+    private final AtomicLongArray counters;
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    private volatile boolean loaded;
+
+    @Autowired
+    public StudentIdFilter(@Value("${school.students.id-filter.enabled:false}") boolean enabled,
+                           @Value("${school.students.id-filter.expected-insertions:1000000}") int expectedInsertions,
+                           @Value("${school.students.id-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.enabled = enabled;
+        double bits = -Math.max(1, expectedInsertions) * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.counterCount = enabled ? (int) Math.min(Integer.MAX_VALUE - 15L, Math.max(64L, (long) bits)) : 0;
+        this.hashCount = Math.max(1, (int) Math.round(bits / Math.max(1, expectedInsertions) * Math.log(2)));
+        this.counters = new AtomicLongArray((counterCount + 15) / 16);
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            locks[i] = new ReentrantLock();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Counts an id read while loading the filter at startup, before any write is served.
+     */
+    public void load(String id) {
+        if (enabled)
+            increment(id);
+    }
+
+    public void loaded() {
+        loaded = enabled;
+    }
+
+    public boolean mightContain(String id) {
+        if (!loaded)
+            return true;
+        int hash = firstHash(id);
+        int step = secondHash(hash);
+        for (int i = 0; i < hashCount; i++) {
+            if (counter(position(hash, step, i)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs an insert of {@code id}, counting it first so readers never miss a committed row and
+     * uncounting it again if the insert fails.
+     */
+    public void insert(String id, Runnable insert) {
+        if (!enabled) {
+            insert.run();
+            return;
+        }
+        ReentrantLock lock = lockFor(id);
+        lock.lock();
+        try {
+            increment(id);
+            try {
+                insert.run();
+            } catch (RuntimeException e) {
+                decrement(id);
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs a multi-row insert, counting every id first and uncounting all of them if it fails.
+     */
+    public void insertAll(Collection<String> ids, Runnable insert) {
+        if (!enabled) {
+            insert.run();
+            return;
+        }
+        // stripes are taken in index order so two batches can never wait on each other
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String id : ids)
+            stripes.add(stripe(id));
+        for (int stripe : stripes)
+            locks[stripe].lock();
+        try {
+            for (String id : ids)
+                increment(id);
+            try {
+                insert.run();
+            } catch (RuntimeException e) {
+                for (String id : ids)
+                    decrement(id);
+                throw e;
+            }
+        } finally {
+            for (int stripe : stripes.descendingSet())
+                locks[stripe].unlock();
+        }
+    }
+
+    /**
+     * Runs a delete of {@code id} and uncounts it if a row was removed.
+     */
+    public int delete(String id, IntSupplier delete) {
+        if (!enabled)
+            return delete.getAsInt();
+        ReentrantLock lock = lockFor(id);
+        lock.lock();
+        try {
+            int deleted = delete.getAsInt();
+            if (deleted > 0)
+                decrement(id);
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock lockFor(String id) {
+        return locks[stripe(id)];
+    }
+
+    private static int stripe(String id) {
+        return (id.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES;
+    }
+
+    private void increment(String id) {
+        int hash = firstHash(id);
+        int step = secondHash(hash);
+        for (int i = 0; i < hashCount; i++)
+            increment(position(hash, step, i));
+    }
+
+    private void decrement(String id) {
+        int hash = firstHash(id);
+        int step = secondHash(hash);
+        for (int i = 0; i < hashCount; i++)
+            decrement(position(hash, step, i));
+    }
+
+    private void increment(int position) {
+        int slot = position >>> 4;
+        int shift = (position & 15) << 2;
+        while (true) {
+            long word = counters.get(slot);
+            if (((word >>> shift) & COUNTER_MASK) == COUNTER_MASK)
+                return;
+            if (counters.compareAndSet(slot, word, word + (1L << shift)))
+                return;
+        }
+    }
+
+    private void decrement(int position) {
+        int slot = position >>> 4;
+        int shift = (position & 15) << 2;
+        while (true) {
+            long word = counters.get(slot);
+            long value = (word >>> shift) & COUNTER_MASK;
+            if (value == 0 || value == COUNTER_MASK)
+                return;
+            if (counters.compareAndSet(slot, word, word - (1L << shift)))
+                return;
+        }
+    }
+
+    private long counter(int position) {
+        return (counters.get(position >>> 4) >>> ((position & 15) << 2)) & COUNTER_MASK;
+    }
+
+    private int position(int hash, int step, int i) {
+        return (int) (((hash + (long) i * step) & Long.MAX_VALUE) % counterCount);
+    }
+
+    private static int firstHash(String id) {
+        return mix(id.hashCode());
+    }
+
+    private static int secondHash(int hash) {
+        return mix(hash ^ 0x9E3779B9) | 1;
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
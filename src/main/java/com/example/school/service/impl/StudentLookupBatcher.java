@@ -0,0 +1,117 @@
+package com.example.school.service.impl;
+
+import com.example.school.model.Student;
+import com.example.school.repository.StudentRepository;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeEmitter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in DataLoader-style batching of single-student lookups. Lookups arriving within
+ * {@code windowMillis} of the first one in a window, or until {@code maxBatchSize} distinct ids
+ * are waiting, are resolved together with one {@code findAllById} query per shard on a dedicated
+ * thread.
+ */
+@Component
+public class StudentLookupBatcher {
+
+    private final StudentRepository studentRepository;
+
+    private final StudentShards studentShards;
+
+    private final boolean enabled;
+
+    private final long windowMillis;
+
+    private final int maxBatchSize;
+
+    private final ScheduledExecutorService flusher;
+
+    private Map<String, List<MaybeEmitter<Student>>> pending = new HashMap<>();
+
+    private boolean flushScheduled;
+
+    @Autowired
+    public StudentLookupBatcher(StudentRepository studentRepository, StudentShards studentShards,
+                                @Value("${school.students.lookup-batching.enabled:false}") boolean enabled,
+                                @Value("${school.students.lookup-batching.window-millis:2}") long windowMillis,
+                                @Value("${school.students.lookup-batching.max-batch-size:100}") int maxBatchSize) {
+        this.studentRepository = studentRepository;
+        this.studentShards = studentShards;
+        this.enabled = enabled;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.flusher = enabled ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "student-lookup-batcher");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Completes with the student, or empty when it does not exist, once the window is flushed.
+     */
+    public Maybe<Student> load(String id) {
+        return Maybe.create(emitter -> enqueue(id, emitter));
+    }
+
+    private synchronized void enqueue(String id, MaybeEmitter<Student> emitter) {
+        pending.computeIfAbsent(id, key -> new ArrayList<>()).add(emitter);
+        if (pending.size() >= maxBatchSize)
+            flusher.execute(this::flush);
+        else if (!flushScheduled) {
+            flushScheduled = true;
+            flusher.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        Map<String, List<MaybeEmitter<Student>>> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new HashMap<>();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty())
+            return;
+        try {
+            for (Student student : studentShards.onOwners(batch.keySet(), studentRepository::findAllById)) {
+                List<MaybeEmitter<Student>> emitters = batch.remove(student.getId());
+                if (emitters != null) {
+                    for (MaybeEmitter<Student> emitter : emitters)
+                        emitter.onSuccess(student);
+                }
+            }
+            for (List<MaybeEmitter<Student>> emitters : batch.values()) {
+                for (MaybeEmitter<Student> emitter : emitters)
+                    emitter.onComplete();
+            }
+        } catch (RuntimeException e) {
+            for (List<MaybeEmitter<Student>> emitters : batch.values()) {
+                for (MaybeEmitter<Student> emitter : emitters)
+                    emitter.tryOnError(e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher != null)
+            flusher.shutdown();
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.school.service.impl;
+
+import com.example.school.model.Student;
+import com.example.school.model.StudentResponse;
+import com.example.school.util.CursorPage;
+import com.example.school.util.StudentMapper;
+import com.example.school.util.StudentQueries;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Token prefix index over the names of active students.
+ * <p>
+ * Names are lower-cased and split into tokens kept in a sorted map, each with the ids of its
+ * students sorted. A search merges the id lists of the tokens its longest query token prefixes,
+ * starting after the cursor, and stops once the page is full, so it costs in proportion to the
+ * page and the matching tokens rather than to the roster. A student matches when each query
+ * token prefixes one of its name tokens. Writers are serialized and applied in change sequence
+ * order per student; readers are lock-free and re-check every candidate against the latest
+ * state, so a search racing a rename never returns a student under its old name. Opt-in, since
+ * it holds every active student in memory; the database search it replaces matches the same way.
+ */
+@Component
+public class StudentNameIndex {
+
+    private final boolean enabled;
+
+    private final ConcurrentSkipListMap<String, NavigableSet<String>> idsByToken = new ConcurrentSkipListMap<>();
+
+    private final Map<String, StudentResponse> students = new ConcurrentHashMap<>();
+
+    private final AppliedChangeSeqs appliedChangeSeqs = new AppliedChangeSeqs();
+
+    @Autowired
+    public StudentNameIndex(@Value("${school.students.name-index.enabled:false}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds a page of active students at startup, before the index serves any write or search.
+     */
+    public synchronized void load(List<StudentResponse> activeStudents) {
+        if (!enabled)
+            return;
+        for (StudentResponse student : activeStudents) {
+            if (student.isActive())
+                add(student);
+        }
+    }
+
+    public CursorPage<StudentResponse> search(String query, String after, int size) {
+        List<String> queryTokens = StudentQueries.nameTokens(query);
+        if (queryTokens.isEmpty())
+            return new CursorPage<>(Collections.emptyList(), null);
+
+        // the longest token usually prefixes the fewest names, the others are checked per candidate
+        String drivingToken = Collections.max(queryTokens, Comparator.comparingInt(String::length));
+        PriorityQueue<PeekingIterator> postings = new PriorityQueue<>();
+        for (NavigableSet<String> ids : idsByToken.subMap(drivingToken, true,
+                drivingToken + Character.MAX_VALUE, false).values()) {
+            PeekingIterator iterator = new PeekingIterator(after == null ? ids.iterator()
+                    : ids.tailSet(after, false).iterator());
+            if (iterator.hasNext())
+                postings.add(iterator);
+        }
+
+        List<StudentResponse> items = new ArrayList<>(size);
+        String previousId = null;
+        while (!postings.isEmpty()) {
+            PeekingIterator iterator = postings.poll();
+            String id = iterator.next();
+            if (iterator.hasNext())
+                postings.add(iterator);
+            // a student with several matching name tokens comes up once per token
+            if (id.equals(previousId))
+                continue;
+            previousId = id;
+            StudentResponse student = students.get(id);
+            if (student == null || !StudentQueries.matchesName(student.getName(), queryTokens))
+                continue;
+            if (items.size() == size)
+                return new CursorPage<>(items, items.get(size - 1).getId());
+            items.add(student);
+        }
+        return new CursorPage<>(items, null);
+    }
+
+    /**
+     * Applies the state of a student as of its change sequence: active students are indexed
+     * under their current name, inactive ones are dropped. A state older than the one applied
+     * last is ignored.
+     */
+    public void apply(Student student) {
+        applyAll(Collections.singletonList(student));
+    }
+
+    public synchronized void applyAll(Collection<Student> changedStudents) {
+        if (!enabled)
+            return;
+        for (Student changedStudent : changedStudents) {
+            if (!appliedChangeSeqs.advance(changedStudent.getId(), changedStudent.getChangeSeq()))
+                continue;
+            unindex(changedStudent.getId());
+            if (changedStudent.isActive())
+                add(StudentMapper.toStudentResponse(changedStudent));
+        }
+    }
+
+    public synchronized void remove(String id, long changeSeq) {
+        if (!enabled || !appliedChangeSeqs.advance(id, changeSeq))
+            return;
+        unindex(id);
+    }
+
+    private void unindex(String id) {
+        StudentResponse previous = students.remove(id);
+        if (previous == null)
+            return;
+        for (String token : StudentQueries.nameTokens(previous.getName())) {
+            NavigableSet<String> ids = idsByToken.get(token);
+            if (ids == null)
+                continue;
+            ids.remove(id);
+            if (ids.isEmpty())
+                idsByToken.remove(token);
+        }
+    }
+
+    private void add(StudentResponse student) {
+        students.put(student.getId(), student);
+        for (String token : StudentQueries.nameTokens(student.getName()))
+            idsByToken.computeIfAbsent(token, key -> new ConcurrentSkipListSet<>()).add(student.getId());
+    }
+
+    /**
+     * Id iterator ordered by its next id, for merging sorted id lists.
+     */
+    private static class PeekingIterator implements Comparable<PeekingIterator> {
+        private final Iterator<String> iterator;
+        private String next;
+
+        PeekingIterator(Iterator<String> iterator) {
+            this.iterator = iterator;
+            this.next = iterator.hasNext() ? iterator.next() : null;
+        }
+
+        boolean hasNext() {
+            return next != null;
+        }
+
+        String next() {
+            String current = next;
+            next = iterator.hasNext() ? iterator.next() : null;
+            return current;
+        }
+
+        @Override
+        public int compareTo(PeekingIterator other) {
+            return next.compareTo(other.next);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.school.service.impl;
+
+import com.example.school.config.ReadWriteRoutingDataSource;
+import com.example.school.model.StudentChange;
+import com.example.school.util.H2Schema;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Opt-in stand-in for asynchronous replication from the primary to the read replica.
+ * <p>
+ * On start the replica gets the primary's schema and rows. After that the committed change
+ * watermark is sampled every {@code pollMillis}, and the rows, archived rows and tombstones up to the
+ * watermark sampled {@code lagMillis} earlier are applied in one replica transaction, so reads
+ * routed to the replica trail writes by about the configured lag. Ids written since the last
+ * applied watermark are remembered, and single-student reads of them go to the primary, so a
+ * client reads its own writes and a stale row never reaches the detail cache.
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+public class StudentReplica {
+
+    private static final String SELECT_STUDENTS = "select id, name, active, version, change_seq, updated_at"
+            + " from students where change_seq > ? and change_seq <= ?";
+
+    private static final String MERGE_STUDENT = "merge into students"
+            + " (id, name, active, version, change_seq, updated_at) key (id) values (?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT_ARCHIVED_STUDENTS = "select id, name, active, version, change_seq"
+            + " from students_archive where change_seq > ? and change_seq <= ?";
+
+    private static final String MERGE_ARCHIVED_STUDENT = "merge into students_archive"
+            + " (id, name, active, version, change_seq) key (id) values (?, ?, ?, ?, ?)";
+
+    private static final String DELETE_ARCHIVED_STUDENT = "delete from students_archive where id = ? and change_seq < ?";
+
+    private static final String SELECT_TOMBSTONES =
+            "select id, change_seq from student_tombstones where change_seq > ? and change_seq <= ?";
+
+    private static final String DELETE_STUDENT = "delete from students where id = ? and change_seq < ?";
+
+    private static final String MERGE_TOMBSTONE =
+            "merge into student_tombstones (id, change_seq) key (id) values (?, ?)";
+
+    private static final String PRUNE_TOMBSTONE = "delete from student_tombstones where id = ? and change_seq <= ?";
+
+    private final StudentChangeSequence studentChangeSequence;
+
+    private final StudentListVersion studentListVersion;
+
+    private final boolean enabled;
+
+    private final long lagNanos;
+
+    private final long pollMillis;
+
+    private final JdbcTemplate primary;
+
+    private final JdbcTemplate replica;
+
+    private final TransactionTemplate replicaTransaction;
+
+    private final TransactionTemplate primaryTransaction;
+
+    /**
+     * Watermark samples as {@code {nanoTime, committed}}, oldest first.
+     */
+    private final Deque<long[]> samples = new ArrayDeque<>();
+
+    private final ConcurrentMap<String, Long> unreplicated = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService replicator;
+
+    private volatile long replicatedUpTo;
+
+    @Autowired
+    public StudentReplica(@Nullable ReadWriteRoutingDataSource routingDataSource,
+                          @Nullable PlatformTransactionManager transactionManager,
+                          StudentChangeSequence studentChangeSequence, StudentListVersion studentListVersion,
+                          @Value("${school.datasource.replica.enabled:false}") boolean enabled,
+                          @Value("${school.datasource.replica.lag-millis:200}") long lagMillis,
+                          @Value("${school.datasource.replica.poll-millis:50}") long pollMillis) {
+        if (enabled && (routingDataSource == null || transactionManager == null))
+            throw new IllegalStateException("school.datasource.replica.enabled needs the read/write routing data source");
+        this.studentChangeSequence = studentChangeSequence;
+        this.studentListVersion = studentListVersion;
+        this.enabled = enabled;
+        this.lagNanos = TimeUnit.MILLISECONDS.toNanos(lagMillis);
+        this.pollMillis = pollMillis;
+        this.primary = enabled ? new JdbcTemplate(routingDataSource.getPrimary()) : null;
+        this.replica = enabled ? new JdbcTemplate(routingDataSource.getReplica()) : null;
+        this.replicaTransaction = enabled
+                ? new TransactionTemplate(new DataSourceTransactionManager(routingDataSource.getReplica())) : null;
+        this.primaryTransaction = enabled ? new TransactionTemplate(transactionManager) : null;
+        this.replicator = enabled ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "student-replica");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Copies the schema and every row to the replica, then starts replicating on the poll
+     * interval. The JPA schema exists by now, the bean depends on the entity manager factory.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled)
+            return;
+        H2Schema.copy(primary, replica);
+        long stored = Math.max(primary.queryForObject("select coalesce(max(change_seq), 0) from students", Long.class),
+                primary.queryForObject("select coalesce(max(change_seq), 0) from student_tombstones", Long.class));
+        stored = Math.max(stored,
+                primary.queryForObject("select coalesce(max(change_seq), 0) from students_archive", Long.class));
+        apply(-1L, stored);
+        replicatedUpTo = stored;
+        replicator.scheduleWithFixedDelay(this::replicateQuietly, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Highest change sequence the replica holds every write up to. Unbounded without a replica.
+     */
+    public long replicatedUpTo() {
+        return enabled ? replicatedUpTo : Long.MAX_VALUE;
+    }
+
+    /**
+     * Records a committed write, so reads of the student go to the primary until the replica has it.
+     */
+    public void written(String id, long changeSeq) {
+        if (enabled)
+            unreplicated.merge(id, changeSeq, Math::max);
+    }
+
+    public boolean isBehind(String id) {
+        return enabled && unreplicated.containsKey(id);
+    }
+
+    /**
+     * Runs a read in a read-write transaction, which routes it to the primary.
+     */
+    public <T> T onPrimary(Supplier<T> read) {
+        return enabled ? primaryTransaction.execute(status -> read.get()) : read.get();
+    }
+
+    /**
+     * Samples the committed watermark and applies whatever was committed at least
+     * {@code lagMillis} ago.
+     */
+    public synchronized void replicate() {
+        long now = System.nanoTime();
+        samples.addLast(new long[]{now, studentChangeSequence.committed()});
+        long target = replicatedUpTo;
+        while (!samples.isEmpty() && now - samples.peekFirst()[0] >= lagNanos)
+            target = Math.max(target, samples.pollFirst()[1]);
+        if (target <= replicatedUpTo)
+            return;
+        if (apply(replicatedUpTo, target))
+            // list tags handed out while the replica was behind may name stale pages
+            studentListVersion.changed();
+        long applied = target;
+        replicatedUpTo = applied;
+        unreplicated.values().removeIf(changeSeq -> changeSeq <= applied);
+    }
+
+    private void replicateQuietly() {
+        try {
+            replicate();
+        } catch (RuntimeException e) {
+            log.warn("Replicating student changes after {} failed, retrying on the next poll", replicatedUpTo, e);
+        }
+    }
+
+    private boolean apply(long since, long until) {
+        List<Object[]> students = primary.query(SELECT_STUDENTS, (resultSet, rowNum) -> new Object[]{
+                resultSet.getString(1), resultSet.getString(2), resultSet.getBoolean(3), resultSet.getLong(4),
+                resultSet.getLong(5), resultSet.getTimestamp(6)}, since, until);
+        List<Object[]> archivedStudents = primary.query(SELECT_ARCHIVED_STUDENTS, (resultSet, rowNum) -> new Object[]{
+                resultSet.getString(1), resultSet.getString(2), resultSet.getBoolean(3), resultSet.getLong(4),
+                resultSet.getLong(5)}, since, until);
+        List<Object[]> tombstones = primary.query(SELECT_TOMBSTONES, (resultSet, rowNum) -> new Object[]{
+                resultSet.getString(1), resultSet.getLong(2)}, since, until);
+        if (students.isEmpty() && archivedStudents.isEmpty() && tombstones.isEmpty())
+            return false;
+        replicaTransaction.executeWithoutResult(status -> {
+            // a row moves between students and the archive with a new change sequence, so the
+            // older copy left on the other side is dropped
+            if (!students.isEmpty()) {
+                replica.batchUpdate(MERGE_STUDENT, students);
+                replica.batchUpdate(DELETE_ARCHIVED_STUDENT, keys(students));
+            }
+            if (!archivedStudents.isEmpty()) {
+                replica.batchUpdate(MERGE_ARCHIVED_STUDENT, archivedStudents);
+                replica.batchUpdate(DELETE_STUDENT, keys(archivedStudents));
+            }
+            if (!tombstones.isEmpty()) {
+                // a row newer than the tombstone is a later re-create and stays
+                replica.batchUpdate(DELETE_STUDENT, tombstones);
+                replica.batchUpdate(DELETE_ARCHIVED_STUDENT, tombstones);
+                replica.batchUpdate(MERGE_TOMBSTONE, tombstones);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Drops tombstones pruned on the primary, which replication does not carry over. They are
+     * already applied, the primary prunes nothing past {@link #replicatedUpTo()}.
+     */
+    public void pruneTombstones(List<StudentChange> tombstones) {
+        if (!enabled || tombstones.isEmpty())
+            return;
+        List<Object[]> keys = new ArrayList<>(tombstones.size());
+        for (StudentChange tombstone : tombstones)
+            keys.add(new Object[]{tombstone.getId(), tombstone.getChangeSeq()});
+        replica.batchUpdate(PRUNE_TOMBSTONE, keys);
+    }
+
+    private static List<Object[]> keys(List<Object[]> rows) {
+        List<Object[]> keys = new ArrayList<>(rows.size());
+        for (Object[] row : rows)
+            keys.add(new Object[]{row[0], row[4]});
+        return keys;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (replicator == null)
+            return;
+        replicator.shutdown();
+        replicator.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
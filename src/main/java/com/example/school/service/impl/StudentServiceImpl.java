@@ -1,87 +1,742 @@
 package com.example.school.service.impl;
 
-import com.example.school.exception.BadRequestException;
+import com.example.school.exception.StudentAlreadyExistsException;
+import com.example.school.exception.StudentNotFoundException;
+import com.example.school.model.ArchivedStudent;
 import com.example.school.model.Student;
+import com.example.school.model.StudentBatchResult;
+import com.example.school.model.StudentChange;
+import com.example.school.model.StudentEvent;
+import com.example.school.model.StudentResponse;
+import com.example.school.repository.ArchivedStudentRepository;
 import com.example.school.repository.StudentRepository;
+import com.example.school.repository.StudentTombstoneRepository;
 import com.example.school.service.StudentService;
+import com.example.school.util.CursorPage;
+import com.example.school.util.StudentQueries;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
 import io.reactivex.Single;
+import org.hibernate.annotations.QueryHints;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
-import javax.persistence.EntityNotFoundException;
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
+@Profile("!reactive")
 public class StudentServiceImpl implements StudentService {
 
+    public static final int MAX_PAGE_SIZE = 500;
+
+    public static final int IMPORT_CHUNK_SIZE = 500;
+
+    public static final int LOOKUP_CHUNK_SIZE = 500;
+
+    private static final int EXPORT_FETCH_SIZE = 1000;
+
+    private static final int ID_FILTER_LOAD_PAGE_SIZE = 10000;
+
+    private static final int INDEX_LOAD_PAGE_SIZE = 10000;
+
+    private static final Comparator<StudentResponse> BY_ID = Comparator.comparing(StudentResponse::getId);
+
     @Autowired
     private StudentRepository studentRepository;
 
+    @Autowired
+    private StudentDetailCache studentDetailCache;
+
+    @Autowired
+    private ActiveStudentIndex activeStudentIndex;
+
+    @Autowired
+    private StudentListVersion studentListVersion;
+
+    @Autowired
+    private StudentLookupBatcher studentLookupBatcher;
+
+    @Autowired
+    private StudentIdFilter studentIdFilter;
+
+    @Autowired
+    private StudentNameIndex studentNameIndex;
+
+    @Autowired
+    private StudentTombstoneRepository studentTombstoneRepository;
+
+    @Autowired
+    private StudentChangeSequence studentChangeSequence;
+
+    @Autowired
+    private StudentChangeFeed studentChangeFeed;
+
+    @Autowired
+    private StudentWriteBuffer studentWriteBuffer;
+
+    @Autowired
+    private StudentReplica studentReplica;
+
+    @Autowired
+    private StudentShards studentShards;
+
+    @Autowired
+    private ArchivedStudentRepository archivedStudentRepository;
+
+    @Autowired
+    private StudentArchiver studentArchiver;
+
+    @PersistenceUnit
+    private EntityManagerFactory entityManagerFactory;
+
+    private final ConcurrentMap<String, Single<Student>> inFlightLookups = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void loadIndexes() {
+        studentChangeSequence.start(studentReplica.onPrimary(this::findMaxChangeSeq));
+        if (activeStudentIndex.isEnabled() || studentNameIndex.isEnabled())
+            loadActiveStudentIndexes();
+        if (studentIdFilter.isEnabled())
+            loadStudentIdFilter();
+    }
+
+    private long findMaxChangeSeq() {
+        long maxChangeSeq = 0L;
+        for (long shardMaxChangeSeq : studentShards.onEach(() -> Math.max(Math.max(studentRepository.findMaxChangeSeq(),
+                studentTombstoneRepository.findMaxChangeSeq()),
+                studentArchiver.isEnabled() ? archivedStudentRepository.findMaxChangeSeq() : 0L)))
+            maxChangeSeq = Math.max(maxChangeSeq, shardMaxChangeSeq);
+        return maxChangeSeq;
+    }
+
+    private List<StudentResponse> findActiveStudents() {
+        return StudentShards.merge(studentShards.onEach(() -> studentRepository.findActiveStudents()), BY_ID,
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * Loads the active students into the indexes in keyset pages, so the name index never waits
+     * on one query over the whole roster.
+     */
+    private void loadActiveStudentIndexes() {
+        List<StudentResponse> activeStudents = new ArrayList<>();
+        Pageable pageable = PageRequest.of(0, INDEX_LOAD_PAGE_SIZE);
+        String after = null;
+        while (true) {
+            String cursor = after;
+            List<StudentResponse> page = StudentShards.merge(studentShards.onEach(() -> cursor == null
+                    ? studentRepository.findActiveStudents(pageable)
+                    : studentRepository.findActiveStudentsAfter(cursor, pageable)), BY_ID, INDEX_LOAD_PAGE_SIZE);
+            studentNameIndex.load(page);
+            if (activeStudentIndex.isEnabled())
+                activeStudents.addAll(page);
+            if (page.size() < INDEX_LOAD_PAGE_SIZE)
+                break;
+            after = page.get(page.size() - 1).getId();
+        }
+        activeStudentIndex.load(activeStudents);
+    }
+
+    private void loadStudentIdFilter() {
+        studentShards.onEach(this::loadStudentIdFilterShard);
+        studentIdFilter.loaded();
+    }
+
+    private int loadStudentIdFilterShard() {
+        int loaded = loadStudentIdFilter(studentRepository::findIds, studentRepository::findIdsAfter);
+        if (studentArchiver.isEnabled())
+            loaded += loadStudentIdFilter(archivedStudentRepository::findIds, archivedStudentRepository::findIdsAfter);
+        return loaded;
+    }
+
+    private int loadStudentIdFilter(Function<Pageable, List<String>> findIds,
+                                    BiFunction<String, Pageable, List<String>> findIdsAfter) {
+        int loaded = 0;
+        Pageable pageable = PageRequest.of(0, ID_FILTER_LOAD_PAGE_SIZE);
+        List<String> ids = findIds.apply(pageable);
+        while (!ids.isEmpty()) {
+            for (String id : ids)
+                studentIdFilter.load(id);
+            loaded += ids.size();
+            if (ids.size() < ID_FILTER_LOAD_PAGE_SIZE)
+                break;
+            ids = findIdsAfter.apply(ids.get(ids.size() - 1), pageable);
+        }
+        return loaded;
+    }
+
+    /**
+     * Archived ids stay taken, the archive is checked before creating a student whose id the
+     * filter may have seen.
+     */
+    private boolean isArchived(String id) {
+        return studentArchiver.isEnabled() && studentIdFilter.mightContain(id) && studentReplica.onPrimary(
+                () -> studentShards.onShardOf(id, () -> archivedStudentRepository.existsById(id)));
+    }
+
     @Override
     public Single<String> newStudent(Student student) {
         return Single.create(singleSubscriber -> {
-            Optional<Student> optionalStudent = studentRepository.findById(student.getId());
-            if (optionalStudent.isPresent())
-                singleSubscriber.onError(new BadRequestException());
-            else {
-                String newStudent = studentRepository.save(student).getId();
-                singleSubscriber.onSuccess(newStudent);
+            if (isArchived(student.getId())) {
+                singleSubscriber.onError(StudentAlreadyExistsException.INSTANCE);
+                return;
+            }
+            long changeSeq = studentChangeSequence.begin();
+            try {
+                student.setChangeSeq(changeSeq);
+                // the primary key is the existence check, a duplicate id fails the insert itself
+                studentIdFilter.insert(student.getId(),
+                        () -> studentShards.runOnShardOf(student.getId(), () -> studentRepository.insert(student)));
+                invalidateStudent(student.getId(), changeSeq);
+                activeStudentIndex.apply(student);
+                studentNameIndex.apply(student);
+                studentListVersion.changed();
+                publish(StudentEvent.Type.CREATED, student);
+                singleSubscriber.onSuccess(student.getId());
+            } catch (DataIntegrityViolationException e) {
+                singleSubscriber.onError(StudentAlreadyExistsException.INSTANCE);
+            } finally {
+                studentChangeSequence.end(changeSeq);
             }
         });
     }
 
+    @Override
+    public Single<StudentBatchResult> newStudents(List<Student> students) {
+        return Single.create(singleSubscriber -> {
+            StudentBatchResult result = new StudentBatchResult();
+            Set<String> seenIds = new HashSet<>();
+            List<StudentChange> created = new ArrayList<>();
+            for (int from = 0; from < students.size(); from += IMPORT_CHUNK_SIZE) {
+                List<Student> chunk = students.subList(from, Math.min(from + IMPORT_CHUNK_SIZE, students.size()));
+                importChunk(chunk, seenIds, result, created);
+            }
+            if (result.getCreated() > 0)
+                studentListVersion.changed();
+            // one event for the whole import, so a large import cannot overrun the subscribers' buffers
+            studentChangeFeed.publishImport(created);
+            singleSubscriber.onSuccess(result);
+        });
+    }
+
+    private void importChunk(List<Student> chunk, Set<String> seenIds, StudentBatchResult result,
+                             List<StudentChange> created) {
+        List<Student> candidates = new ArrayList<>(chunk.size());
+        for (Student student : chunk) {
+            if (student.getId() == null)
+                result.addRejected();
+            else if (!seenIds.add(student.getId()))
+                result.addConflict(student.getId());
+            else
+                candidates.add(student);
+        }
+        if (candidates.isEmpty())
+            return;
+
+        // ids the filter has definitely never seen cannot conflict, so only the rest are queried
+        List<String> possiblyExistingIds = new ArrayList<>(candidates.size());
+        for (Student student : candidates) {
+            if (studentIdFilter.mightContain(student.getId()))
+                possiblyExistingIds.add(student.getId());
+        }
+        Set<String> existingIds = possiblyExistingIds.isEmpty()
+                ? Collections.emptySet()
+                : new HashSet<>(studentReplica.onPrimary(
+                        () -> studentShards.onOwners(possiblyExistingIds, studentRepository::findExistingIds)));
+        if (!possiblyExistingIds.isEmpty() && studentArchiver.isEnabled())
+            existingIds.addAll(studentReplica.onPrimary(
+                    () -> studentShards.onOwners(possiblyExistingIds, archivedStudentRepository::findExistingIds)));
+        List<Student> newStudents = new ArrayList<>(candidates.size());
+        for (Student student : candidates) {
+            if (existingIds.contains(student.getId()))
+                result.addConflict(student.getId());
+            else
+                newStudents.add(student);
+        }
+        if (newStudents.isEmpty())
+            return;
+
+        long[] changeSeqs = new long[newStudents.size()];
+        for (int i = 0; i < changeSeqs.length; i++) {
+            changeSeqs[i] = studentChangeSequence.begin();
+            newStudents.get(i).setChangeSeq(changeSeqs[i]);
+        }
+        try {
+            // each shard commits its part separately, so a conflict only sends that part down the row by row path
+            for (List<Student> shardStudents : studentShards.partition(newStudents, Student::getId).values())
+                insertChunk(shardStudents, result, created);
+        } finally {
+            for (long changeSeq : changeSeqs)
+                studentChangeSequence.end(changeSeq);
+        }
+    }
+
+    /**
+     * Inserts students that all live on the same shard.
+     */
+    private void insertChunk(List<Student> newStudents, StudentBatchResult result, List<StudentChange> created) {
+        try {
+            studentIdFilter.insertAll(toIds(newStudents), () -> studentShards.runOnShardOf(newStudents.get(0).getId(),
+                    () -> studentRepository.insertAll(newStudents)));
+            result.addCreated(newStudents.size());
+            activeStudentIndex.applyAll(newStudents);
+            studentNameIndex.applyAll(newStudents);
+            for (Student student : newStudents) {
+                invalidateStudent(student.getId(), student.getChangeSeq());
+                created.add(toChange(student));
+            }
+        } catch (DataIntegrityViolationException e) {
+            // a concurrent create took one of the ids after our existence check, isolate it row by row
+            for (Student student : newStudents) {
+                try {
+                    studentIdFilter.insert(student.getId(),
+                            () -> studentShards.runOnShardOf(student.getId(), () -> studentRepository.insert(student)));
+                    result.addCreated(1);
+                    invalidateStudent(student.getId(), student.getChangeSeq());
+                    activeStudentIndex.apply(student);
+                    studentNameIndex.apply(student);
+                    created.add(toChange(student));
+                } catch (DataIntegrityViolationException conflict) {
+                    result.addConflict(student.getId());
+                }
+            }
+        }
+    }
+
+    private void publish(StudentEvent.Type type, Student student) {
+        studentChangeFeed.publish(type, toChange(student));
+    }
+
+    private static StudentChange toChange(Student student) {
+        return new StudentChange(student.getId(), student.getName(), student.isActive(), student.getChangeSeq());
+    }
+
+    private List<String> toIds(List<Student> students) {
+        List<String> ids = new ArrayList<>(students.size());
+        for (Student student : students)
+            ids.add(student.getId());
+        return ids;
+    }
+
     @Override
     public Completable updateStudent(Student studentData) {
         return Completable.create(completableSubscriber -> {
-            Optional<Student> optionalStudent = studentRepository.findById(studentData.getId());
-            if (!optionalStudent.isPresent())
-                completableSubscriber.onError(new EntityNotFoundException());
+            if (!studentIdFilter.mightContain(studentData.getId())) {
+                completableSubscriber.onError(new StudentNotFoundException());
+                return;
+            }
+            if (studentWriteBuffer.hasCapacity()) {
+                bufferUpdate(studentData);
+                completableSubscriber.onComplete();
+                return;
+            }
+            // with the buffer full, an older buffered update of the student must not land after this one
+            studentWriteBuffer.discard(studentData.getId());
+            long changeSeq = studentChangeSequence.begin();
+            studentData.setChangeSeq(changeSeq);
+            int updated;
+            try {
+                updated = studentShards.onShardOf(studentData.getId(), () -> studentRepository.updateNameAndActive(
+                        studentData.getId(), studentData.getName(), studentData.isActive(), changeSeq));
+                // any update brings an archived student back, the archiver moves it again once it is long inactive
+                if (updated == 0)
+                    updated = studentArchiver.restore(studentData.getId(), studentData.getName(),
+                            studentData.isActive(), changeSeq);
+            } finally {
+                studentChangeSequence.end(changeSeq);
+            }
+            if (updated == 0)
+                completableSubscriber.onError(new StudentNotFoundException());
             else {
-                Student student = optionalStudent.get();
-                student.setName(studentData.getName());
-                student.setActive(studentData.isActive());
-                studentRepository.save(student);
+                invalidateStudent(studentData.getId(), changeSeq);
+                activeStudentIndex.apply(studentData);
+                studentNameIndex.apply(studentData);
+                studentListVersion.changed();
+                studentChangeFeed.publish(StudentEvent.Type.UPDATED, new StudentChange(studentData.getId(),
+                        studentData.getName(), studentData.isActive(), changeSeq));
                 completableSubscriber.onComplete();
             }
         });
     }
 
+    /**
+     * Acknowledges an update once it is buffered. Only the first update of a burst pays for an
+     * existence check; later ones find the id pending or cached.
+     */
+    private void bufferUpdate(Student studentData) {
+        String id = studentData.getId();
+        if (!studentWriteBuffer.isPending(id) && studentDetailCache.getIfPresent(id) == null
+                && !studentReplica.onPrimary(() -> studentShards.onShardOf(id, () -> studentRepository.existsById(id)))
+                && !isArchived(id))
+            throw new StudentNotFoundException();
+        long changeSeq = studentChangeSequence.begin();
+        studentData.setChangeSeq(changeSeq);
+        studentWriteBuffer.enqueue(studentData);
+        invalidateStudent(id, changeSeq);
+        activeStudentIndex.apply(studentData);
+        studentNameIndex.apply(studentData);
+        studentListVersion.changed();
+        publish(StudentEvent.Type.UPDATED, studentData);
+    }
+
+    @Override
+    public Single<List<StudentResponse>> getAllStudents() {
+        return Single.create(singleSubscriber -> {
+            if (activeStudentIndex.isEnabled()) {
+                singleSubscriber.onSuccess(activeStudentIndex.all());
+                return;
+            }
+            List<StudentResponse> studentsListActives = findActiveStudents();
+            singleSubscriber.onSuccess(studentWriteBuffer.isEnabled()
+                    ? studentWriteBuffer.overlay(studentsListActives, null, null, student -> true)
+                    : studentsListActives);
+        });
+
+    }
+
+    @Override
+    public Single<CursorPage<StudentResponse>> getActiveStudents(String after, int size) {
+        return Single.create(singleSubscriber -> {
+            int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+            if (activeStudentIndex.isEnabled()) {
+                singleSubscriber.onSuccess(activeStudentIndex.page(after, pageSize));
+                return;
+            }
+            // one extra row tells us whether there is a next page without a count query
+            Pageable pageable = PageRequest.of(0, pageSize + 1);
+            List<StudentResponse> students = StudentShards.merge(studentShards.onEach(() -> after == null
+                    ? studentRepository.findActiveStudents(pageable)
+                    : studentRepository.findActiveStudentsAfter(after, pageable)), BY_ID, pageSize + 1);
+            singleSubscriber.onSuccess(toCursorPage(students, after, pageSize, student -> true));
+        });
+    }
+
+    @Override
+    public Single<CursorPage<StudentResponse>> searchStudents(String query, String after, int size) {
+        return Single.create(singleSubscriber -> {
+            int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+            if (studentNameIndex.isEnabled()) {
+                singleSubscriber.onSuccess(studentNameIndex.search(query, after, pageSize));
+                return;
+            }
+            List<String> queryTokens = StudentQueries.nameTokens(query);
+            if (queryTokens.isEmpty()) {
+                singleSubscriber.onSuccess(new CursorPage<>(Collections.emptyList(), null));
+                return;
+            }
+            // the same match as the name index: rows containing the longest token are read in pages,
+            // a scan since the pattern starts with a wildcard, and kept when every token prefixes a name token
+            String namePattern = StudentQueries.nameCandidatePattern(queryTokens);
+            Predicate<StudentResponse> matches = student -> StudentQueries.matchesName(student.getName(), queryTokens);
+            Pageable pageable = PageRequest.of(0, pageSize + 1);
+            List<StudentResponse> students = new ArrayList<>();
+            String readAfter = after;
+            while (true) {
+                String cursor = readAfter;
+                List<StudentResponse> rows = StudentShards.merge(studentShards.onEach(() -> cursor == null
+                        ? studentRepository.searchActiveStudents(namePattern, pageable)
+                        : studentRepository.searchActiveStudentsAfter(namePattern, cursor, pageable)),
+                        BY_ID, pageSize + 1);
+                for (StudentResponse row : rows) {
+                    if (matches.test(row))
+                        students.add(row);
+                }
+                if (rows.size() <= pageSize || students.size() > pageSize)
+                    break;
+                readAfter = rows.get(rows.size() - 1).getId();
+            }
+            singleSubscriber.onSuccess(toCursorPage(students, after, pageSize, matches));
+        });
+    }
+
     @Override
-    public Single<List<Student>> getAllStudents() {
+    public Single<CursorPage<StudentChange>> getChanges(long since, int size) {
         return Single.create(singleSubscriber -> {
-            List<Student> students = studentRepository.findAll();
-            List<Student> studentsListActives = students.stream().filter(studentResponse -> studentResponse.isActive()).collect(Collectors.toList());
-            singleSubscriber.onSuccess(studentsListActives);
+            int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+            // nothing past the committed watermark is read, so a slower write can never land behind a cursor,
+            // and nothing past what the replica has applied, since these reads are routed to it
+            long until = Math.min(studentChangeSequence.committed(), studentReplica.replicatedUpTo());
+            Pageable pageable = PageRequest.of(0, pageSize + 1);
+            List<StudentChange> changes = new ArrayList<>();
+            for (List<StudentChange> shardChanges : studentShards.onEach(() -> {
+                List<StudentChange> found = new ArrayList<>(studentRepository.findChanges(since, until, pageable));
+                found.addAll(studentTombstoneRepository.findChanges(since, until, pageable));
+                if (studentArchiver.isEnabled())
+                    found.addAll(archivedStudentRepository.findChanges(since, until, pageable));
+                return found;
+            }))
+                changes.addAll(shardChanges);
+            changes.sort(Comparator.comparingLong(StudentChange::getChangeSeq));
+            if (changes.size() <= pageSize) {
+                singleSubscriber.onSuccess(new CursorPage<>(changes, String.valueOf(Math.max(since, until))));
+                return;
+            }
+            List<StudentChange> page = new ArrayList<>(changes.subList(0, pageSize));
+            singleSubscriber.onSuccess(new CursorPage<>(page, String.valueOf(page.get(pageSize - 1).getChangeSeq())));
         });
+    }
+
+    @Override
+    public Flowable<StudentEvent> streamChanges(String lastEventId) {
+        return studentChangeFeed.subscribe(lastEventId);
+    }
+
+    @Override
+    public String getStudentsVersion() {
+        return studentListVersion.current();
+    }
 
+    /**
+     * Cuts a page out of up to {@code pageSize + 1} rows read in id order after {@code after},
+     * with the buffered updates that match laid over them.
+     */
+    private CursorPage<StudentResponse> toCursorPage(List<StudentResponse> rows, String after, int pageSize,
+                                                     Predicate<StudentResponse> matches) {
+        List<StudentResponse> students = rows;
+        String readUpTo = null;
+        if (studentWriteBuffer.isEnabled()) {
+            // a buffered update past the last row read belongs to a later page, so a short page still gets a cursor
+            readUpTo = rows.size() > pageSize ? rows.get(rows.size() - 1).getId() : null;
+            students = studentWriteBuffer.overlay(rows, after, readUpTo, matches);
+        }
+        if (readUpTo != null && students.size() <= pageSize)
+            return new CursorPage<>(students, readUpTo);
+        return StudentQueries.toCursorPage(students, pageSize);
     }
 
     @Override
     public Single<Student> getStudentDetail(String id) {
+        return Single.defer(() -> {
+            Student bufferedStudent = studentWriteBuffer.getPending(id);
+            if (bufferedStudent != null)
+                return Single.just(bufferedStudent);
+            Student cachedStudent = studentDetailCache.getIfPresent(id);
+            if (cachedStudent != null)
+                return Single.just(cachedStudent);
+            if (!studentIdFilter.mightContain(id))
+                return Single.error(new StudentNotFoundException());
+            return inFlightLookups.computeIfAbsent(id, this::sharedLookup);
+        });
+    }
+
+    /**
+     * One database read shared by every request for the same id that arrives while it is in
+     * flight. The entry is removed when the read completes, and writes remove it early, so a
+     * request that starts after a write never joins a read that started before it.
+     */
+    private Single<Student> sharedLookup(String id) {
+        AtomicReference<Single<Student>> self = new AtomicReference<>();
+        Single<Student> lookup = Single.defer(() -> {
+            long cacheEpoch = studentDetailCache.epoch(id);
+            return loadStudent(id)
+                    .doOnSuccess(student -> studentDetailCache.put(student, cacheEpoch))
+                    .switchIfEmpty(Single.<Student>error(new StudentNotFoundException()));
+        }).doFinally(() -> inFlightLookups.remove(id, self.get())).cache();
+        self.set(lookup);
+        return lookup;
+    }
+
+    private Maybe<Student> loadStudent(String id) {
+        Maybe<Student> student = loadCurrentStudent(id);
+        if (!studentArchiver.isEnabled())
+            return student;
+        return student.switchIfEmpty(Maybe.fromCallable(() -> studentReplica.isBehind(id)
+                ? studentReplica.onPrimary(() -> findArchivedStudent(id))
+                : findArchivedStudent(id)));
+    }
+
+    private Student findArchivedStudent(String id) {
+        return studentShards.onShardOf(id,
+                () -> archivedStudentRepository.findById(id).map(ArchivedStudent::toStudent).orElse(null));
+    }
+
+    private Maybe<Student> loadCurrentStudent(String id) {
+        if (studentReplica.isBehind(id))
+            return Maybe.fromCallable(() -> studentReplica.onPrimary(
+                    () -> studentShards.onShardOf(id, () -> studentRepository.findById(id).orElse(null))));
+        if (studentLookupBatcher.isEnabled())
+            return studentLookupBatcher.load(id);
+        return Maybe.fromCallable(() -> studentShards.onShardOf(id, () -> studentRepository.findById(id).orElse(null)));
+    }
+
+    @Override
+    public Single<List<Student>> getStudents(List<String> ids) {
         return Single.create(singleSubscriber -> {
-            Optional<Student> optionalStudent = studentRepository.findById(id);
-            if (!optionalStudent.isPresent())
-                singleSubscriber.onError(new EntityNotFoundException());
-            else {
-                singleSubscriber.onSuccess(optionalStudent.get());
+            Map<String, Student> students = new HashMap<>();
+            List<String> missingIds = new ArrayList<>();
+            for (String id : new LinkedHashSet<>(ids)) {
+                Student cachedStudent = studentWriteBuffer.getPending(id);
+                if (cachedStudent == null)
+                    cachedStudent = studentDetailCache.getIfPresent(id);
+                if (cachedStudent != null)
+                    students.put(id, cachedStudent);
+                else if (studentIdFilter.mightContain(id))
+                    missingIds.add(id);
             }
+            for (int from = 0; from < missingIds.size(); from += LOOKUP_CHUNK_SIZE) {
+                List<String> chunk = missingIds.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, missingIds.size()));
+                Map<String, Long> cacheEpochs = new HashMap<>();
+                for (String id : chunk)
+                    cacheEpochs.put(id, studentDetailCache.epoch(id));
+                List<Student> found = new ArrayList<>(chunk.stream().anyMatch(studentReplica::isBehind)
+                        ? studentReplica.onPrimary(() -> studentShards.onOwners(chunk, studentRepository::findAllById))
+                        : studentShards.onOwners(chunk, studentRepository::findAllById));
+                if (studentArchiver.isEnabled() && found.size() < chunk.size())
+                    found.addAll(findArchivedStudents(chunk, found));
+                for (Student student : found) {
+                    studentDetailCache.put(student, cacheEpochs.get(student.getId()));
+                    students.put(student.getId(), student);
+                }
+            }
+            List<Student> orderedStudents = new ArrayList<>(students.size());
+            for (String id : new LinkedHashSet<>(ids)) {
+                Student student = students.get(id);
+                if (student != null)
+                    orderedStudents.add(student);
+            }
+            singleSubscriber.onSuccess(orderedStudents);
         });
     }
 
+    private List<Student> findArchivedStudents(List<String> ids, List<Student> found) {
+        Set<String> foundIds = found.stream().map(Student::getId).collect(Collectors.toSet());
+        List<String> archivedIds = ids.stream().filter(id -> !foundIds.contains(id)).collect(Collectors.toList());
+        Supplier<List<ArchivedStudent>> lookup = () -> studentShards.onOwners(archivedIds,
+                archivedStudentRepository::findAllById);
+        List<ArchivedStudent> archived = archivedIds.stream().anyMatch(studentReplica::isBehind)
+                ? studentReplica.onPrimary(lookup)
+                : lookup.get();
+        return archived.stream().map(ArchivedStudent::toStudent).collect(Collectors.toList());
+    }
+
+    private void invalidateStudent(String id, long changeSeq) {
+        studentReplica.written(id, changeSeq);
+        studentDetailCache.invalidate(id);
+        inFlightLookups.remove(id);
+    }
+
+    @Override
+    public Flowable<Student> exportStudents() {
+        // shards are exported one after another, each through its own cursor
+        return Flowable.range(0, studentShards.count()).concatMap(shard -> Flowable.<Student, ExportCursor>generate(
+                () -> studentShards.on(shard, this::openExportCursor), (cursor, emitter) -> {
+                    if (cursor.hasNext())
+                        emitter.onNext(cursor.next());
+                    else
+                        emitter.onComplete();
+                }, ExportCursor::close)).map(this::withBufferedUpdate);
+    }
+
+    private Student withBufferedUpdate(Student student) {
+        Student bufferedStudent = studentWriteBuffer.getPending(student.getId());
+        return bufferedStudent != null ? bufferedStudent : student;
+    }
+
+    private ExportCursor openExportCursor() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            Stream<Student> students = entityManager.createQuery("select s from Student s", Student.class)
+                    .setHint(QueryHints.FETCH_SIZE, EXPORT_FETCH_SIZE)
+                    .setHint(QueryHints.READ_ONLY, true)
+                    .getResultStream();
+            return new ExportCursor(entityManager, students);
+        } catch (RuntimeException e) {
+            entityManager.close();
+            throw e;
+        }
+    }
+
     @Override
     public Completable deleteStudent(String id) {
         return Completable.create(completableSubscriber -> {
-            Optional<Student> optionalStudent = studentRepository.findById(id);
-            if (!optionalStudent.isPresent())
-                completableSubscriber.onError(new EntityNotFoundException());
+            if (!studentIdFilter.mightContain(id)) {
+                completableSubscriber.onError(new StudentNotFoundException());
+                return;
+            }
+            studentWriteBuffer.discard(id);
+            long changeSeq = studentChangeSequence.begin();
+            int deleted;
+            try {
+                deleted = studentIdFilter.delete(id,
+                        () -> studentShards.onShardOf(id, () -> studentRepository.deleteWithTombstone(id, changeSeq)));
+            } finally {
+                studentChangeSequence.end(changeSeq);
+            }
+            if (deleted == 0)
+                completableSubscriber.onError(new StudentNotFoundException());
             else {
-                studentRepository.delete(optionalStudent.get());
+                invalidateStudent(id, changeSeq);
+                activeStudentIndex.remove(id, changeSeq);
+                studentNameIndex.remove(id, changeSeq);
+                studentListVersion.changed();
+                studentChangeFeed.publish(StudentEvent.Type.DELETED, new StudentChange(id, changeSeq));
                 completableSubscriber.onComplete();
             }
         });
     }
 
+    /**
+     * Forward-only cursor over the students table. Every row is detached as soon as it is
+     * handed out, so the persistence context never grows with the size of the export.
+     */
+    private static class ExportCursor {
+        private final EntityManager entityManager;
+        private final Stream<Student> students;
+        private final Iterator<Student> iterator;
+
+        ExportCursor(EntityManager entityManager, Stream<Student> students) {
+            this.entityManager = entityManager;
+            this.students = students;
+            this.iterator = students.iterator();
+        }
+
+        boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        Student next() {
+            Student student = iterator.next();
+            entityManager.detach(student);
+            return student;
+        }
+
+        void close() {
+            try {
+                students.close();
+                if (entityManager.getTransaction().isActive())
+                    entityManager.getTransaction().rollback();
+            } finally {
+                entityManager.close();
+            }
+        }
+    }
+
 }
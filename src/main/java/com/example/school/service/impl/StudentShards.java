@@ -0,0 +1,185 @@
+package com.example.school.service.impl;
+
+import com.example.school.config.ShardRoutingDataSource;
+import com.example.school.util.H2Schema;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Opt-in hash partitioning of students over the shards of {@link ShardRoutingDataSource}.
+ * <p>
+ * A student lives on shard {@code floorMod(id.hashCode(), count)}. Point operations run on the
+ * owning shard, operations on several ids once per owning shard, and listings on every shard
+ * in parallel, leaving the caller to {@link #merge} the sorted per-shard results. Disabled,
+ * there is one shard and everything runs on the calling thread.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class StudentShards {
+
+    private final ShardRoutingDataSource shardRoutingDataSource;
+
+    private final boolean enabled;
+
+    private final ExecutorService fanOut;
+
+    @Autowired
+    public StudentShards(@Nullable ShardRoutingDataSource shardRoutingDataSource,
+                         @Value("${school.datasource.shards.enabled:false}") boolean enabled,
+                         @Value("${school.datasource.shards.fan-out-threads:16}") int fanOutThreads) {
+        if (enabled && shardRoutingDataSource == null)
+            throw new IllegalStateException("school.datasource.shards.enabled needs the shard routing data source");
+        this.shardRoutingDataSource = shardRoutingDataSource;
+        this.enabled = enabled;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.fanOut = enabled ? Executors.newFixedThreadPool(fanOutThreads, runnable -> {
+            Thread thread = new Thread(runnable, "student-shards-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gives every shard the JPA schema, which Hibernate only created on shard 0.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled)
+            return;
+        List<DataSource> shards = shardRoutingDataSource.getShards();
+        JdbcTemplate first = new JdbcTemplate(shards.get(0));
+        for (int shard = 1; shard < shards.size(); shard++)
+            H2Schema.copy(first, new JdbcTemplate(shards.get(shard)));
+    }
+
+    public int count() {
+        return enabled ? shardRoutingDataSource.getShards().size() : 1;
+    }
+
+    public int shardOf(String id) {
+        return enabled ? Math.floorMod(id.hashCode(), count()) : 0;
+    }
+
+    public <T> T on(int shard, Supplier<T> work) {
+        return enabled ? ShardRoutingDataSource.on(shard, work) : work.get();
+    }
+
+    public <T> T onShardOf(String id, Supplier<T> work) {
+        return on(shardOf(id), work);
+    }
+
+    public void runOnShardOf(String id, Runnable work) {
+        onShardOf(id, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs {@code work} on every shard in parallel and returns the results in shard order.
+     */
+    public <T> List<T> onEach(Supplier<T> work) {
+        List<Supplier<T>> tasks = new ArrayList<>(count());
+        for (int shard = 0; shard < count(); shard++) {
+            int target = shard;
+            tasks.add(() -> on(target, work));
+        }
+        return fanOut(tasks);
+    }
+
+    /**
+     * Runs {@code work} once per shard owning some of {@code ids}, with just those ids, and
+     * concatenates the results.
+     */
+    public <T> List<T> onOwners(Collection<String> ids, Function<List<String>, List<T>> work) {
+        List<Supplier<List<T>>> tasks = new ArrayList<>();
+        for (Map.Entry<Integer, List<String>> shardIds : partition(ids, Function.identity()).entrySet())
+            tasks.add(() -> on(shardIds.getKey(), () -> work.apply(shardIds.getValue())));
+        List<T> results = new ArrayList<>(ids.size());
+        for (List<T> shardResults : fanOut(tasks))
+            results.addAll(shardResults);
+        return results;
+    }
+
+    /**
+     * Groups {@code items} by the shard owning their id, in shard order.
+     */
+    public <E> Map<Integer, List<E>> partition(Collection<E> items, Function<E, String> idOf) {
+        if (!enabled)
+            return Collections.singletonMap(0, new ArrayList<>(items));
+        Map<Integer, List<E>> partitions = new TreeMap<>();
+        for (E item : items)
+            partitions.computeIfAbsent(shardOf(idOf.apply(item)), shard -> new ArrayList<>()).add(item);
+        return partitions;
+    }
+
+    private <T> List<T> fanOut(List<Supplier<T>> tasks) {
+        if (tasks.size() == 1)
+            return Collections.singletonList(tasks.get(0).get());
+        List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Supplier<T> task : tasks)
+            futures.add(CompletableFuture.supplyAsync(task, fanOut));
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<T> future : futures)
+                results.add(future.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Merges per-shard results, each already sorted by {@code order}, and keeps the first
+     * {@code limit}.
+     */
+    public static <T> List<T> merge(List<List<T>> shardResults, Comparator<? super T> order, int limit) {
+        List<T> merged;
+        if (shardResults.size() == 1)
+            merged = shardResults.get(0);
+        else {
+            merged = new ArrayList<>();
+            for (List<T> results : shardResults)
+                merged.addAll(results);
+            merged.sort(order);
+        }
+        return merged.size() <= limit ? merged : new ArrayList<>(merged.subList(0, limit));
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (fanOut == null)
+            return;
+        fanOut.shutdown();
+        fanOut.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.school.service.impl;
+
+import com.example.school.model.StudentChange;
+import com.example.school.repository.StudentTombstoneRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job deleting tombstones of students deleted more than {@code retentionSeconds}
+ * ago, in batches of {@code batchSize}, every {@code intervalSeconds}.
+ * <p>
+ * Delta sync reports a delete only while its tombstone is kept, so a client whose cursor is
+ * older than the retention has to reload the roster instead of resuming. Nothing past the
+ * committed watermark or past what the read replica has applied is pruned, so a delete is never
+ * dropped before every reader could see it.
+ */
+@Slf4j
+@Component
+@Profile("!reactive")
+public class StudentTombstonePruner {
+
+    private final StudentTombstoneRepository studentTombstoneRepository;
+
+    private final StudentShards studentShards;
+
+    private final StudentChangeSequence studentChangeSequence;
+
+    private final StudentReplica studentReplica;
+
+    private final boolean enabled;
+
+    private final long retentionSeconds;
+
+    private final int batchSize;
+
+    private final ScheduledExecutorService pruner;
+
+    @Autowired
+    public StudentTombstonePruner(StudentTombstoneRepository studentTombstoneRepository, StudentShards studentShards,
+                                  StudentChangeSequence studentChangeSequence, StudentReplica studentReplica,
+                                  @Value("${school.students.tombstones.prune.enabled:true}") boolean enabled,
+                                  @Value("${school.students.tombstones.retention-seconds:2592000}") long retentionSeconds,
+                                  @Value("${school.students.tombstones.prune.interval-seconds:3600}") long intervalSeconds,
+                                  @Value("${school.students.tombstones.prune.batch-size:500}") int batchSize) {
+        this.studentTombstoneRepository = studentTombstoneRepository;
+        this.studentShards = studentShards;
+        this.studentChangeSequence = studentChangeSequence;
+        this.studentReplica = studentReplica;
+        this.enabled = enabled;
+        this.retentionSeconds = retentionSeconds;
+        this.batchSize = batchSize;
+        this.pruner = enabled && intervalSeconds > 0 ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "student-tombstone-pruner");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        if (pruner != null)
+            pruner.scheduleWithFixedDelay(this::pruneQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Deletes every tombstone older than {@code retentionSeconds} that every reader can see.
+     * Returns how many tombstones were deleted.
+     */
+    public synchronized int prune() {
+        Instant cutoff = Instant.now().minusSeconds(retentionSeconds);
+        long until = Math.min(studentChangeSequence.committed(), studentReplica.replicatedUpTo());
+        int pruned = 0;
+        for (int shardPruned : studentShards.onEach(() -> pruneShard(cutoff, until)))
+            pruned += shardPruned;
+        return pruned;
+    }
+
+    private int pruneShard(Instant cutoff, long until) {
+        int pruned = 0;
+        Pageable pageable = PageRequest.of(0, batchSize);
+        List<StudentChange> tombstones;
+        do {
+            // read on the primary, a lagging replica would hand back tombstones already gone
+            tombstones = studentReplica.onPrimary(() -> studentTombstoneRepository.findPrunable(cutoff, until, pageable));
+            if (tombstones.isEmpty())
+                break;
+            List<String> ids = new ArrayList<>(tombstones.size());
+            for (StudentChange tombstone : tombstones)
+                ids.add(tombstone.getId());
+            int deleted = studentTombstoneRepository.prune(ids, cutoff, until);
+            studentReplica.pruneTombstones(tombstones);
+            pruned += deleted;
+            if (deleted == 0)
+                break;
+        } while (tombstones.size() == batchSize);
+        return pruned;
+    }
+
+    private void pruneQuietly() {
+        try {
+            int pruned = prune();
+            if (pruned > 0)
+                log.info("Pruned {} student tombstones", pruned);
+        } catch (RuntimeException e) {
+            log.warn("Pruning student tombstones failed, retrying on the next run", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (pruner == null)
+            return;
+        pruner.shutdown();
+        pruner.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
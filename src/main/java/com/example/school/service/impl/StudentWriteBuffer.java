@@ -0,0 +1,271 @@
+package com.example.school.service.impl;
+
+import com.example.school.model.Student;
+import com.example.school.model.StudentResponse;
+import com.example.school.util.StudentMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Opt-in write-behind buffer for student updates.
+ * <p>
+ * Updates are keyed by id and the last write wins, so a burst of updates to one student costs
+ * a single row write. The buffer is flushed with one JDBC batch every {@code flushIntervalMillis},
+ * or as soon as {@code maxPending} ids are waiting, and drained on shutdown. An entry stays
+ * visible through {@link #getPending} and {@link #overlay} until the write carrying it has
+ * committed, and its change sequence stays in flight until then, so delta sync never reads past
+ * an unflushed update. The list version is bumped again once a write commits. An
+ * update matching no row restores the student from the archive, which it may have been moved to
+ * while the update was buffered.
+ * <p>
+ * A failed batch is retried row by row. A row the database rejects is dropped and logged, so it
+ * cannot hold back the rest of the buffer or the change watermark; any other failure keeps the
+ * buffer for the next flush. Past {@code maxBuffered} ids the buffer accepts no more updates and
+ * callers write synchronously, so a flusher that cannot reach the database does not grow it
+ * without bound.
+ */
+@Slf4j
+@Component
+public class StudentWriteBuffer {
+
+    private static final String UPDATE_SQL =
+            "update students set name = ?, active = ?, version = version + 1, change_seq = ?,"
+            + " updated_at = current_timestamp where id = ?";
+
+    private static final int SHUTDOWN_FLUSH_ATTEMPTS = 3;
+
+    private static final long SHUTDOWN_RETRY_MILLIS = 500L;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final StudentChangeSequence studentChangeSequence;
+
+    private final StudentShards studentShards;
+
+    private final StudentArchiver studentArchiver;
+
+    private final StudentListVersion studentListVersion;
+
+    private final boolean enabled;
+
+    private final int maxPending;
+
+    private final int maxBuffered;
+
+    private final ConcurrentMap<String, Student> pending = new ConcurrentHashMap<>();
+
+    private final Object flushLock = new Object();
+
+    private final ScheduledExecutorService flusher;
+
+    @Autowired
+    public StudentWriteBuffer(JdbcTemplate jdbcTemplate, StudentChangeSequence studentChangeSequence,
+                              StudentShards studentShards, @Nullable StudentArchiver studentArchiver,
+                              StudentListVersion studentListVersion,
+                              @Value("${school.students.write-behind.enabled:false}") boolean enabled,
+                              @Value("${school.students.write-behind.max-pending:500}") int maxPending,
+                              @Value("${school.students.write-behind.max-buffered:10000}") int maxBuffered,
+                              @Value("${school.students.write-behind.flush-interval-millis:50}") long flushIntervalMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.studentChangeSequence = studentChangeSequence;
+        this.studentShards = studentShards;
+        this.studentArchiver = studentArchiver;
+        this.studentListVersion = studentListVersion;
+        this.enabled = enabled;
+        this.maxPending = maxPending;
+        this.maxBuffered = maxBuffered;
+        this.flusher = enabled ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "student-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        if (enabled)
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether an update can be buffered, false when disabled or when {@code maxBuffered} ids
+     * are waiting.
+     */
+    public boolean hasCapacity() {
+        return enabled && pending.size() < maxBuffered;
+    }
+
+    public boolean isPending(String id) {
+        return pending.containsKey(id);
+    }
+
+    public Student getPending(String id) {
+        return enabled ? pending.get(id) : null;
+    }
+
+    /**
+     * Lays the buffered updates over active students read from the database in id order. A
+     * buffered student replaces its row, drops out once inactive or no longer matching, and
+     * shows up where it now matches. Only ids after {@code after} and up to {@code upTo}, the
+     * range the rows cover, are laid in; a null bound is open.
+     */
+    public List<StudentResponse> overlay(List<StudentResponse> rows, String after, String upTo,
+                                         Predicate<StudentResponse> matches) {
+        if (!enabled || pending.isEmpty())
+            return rows;
+        // a snapshot, so an update flushed meanwhile is still laid over the row read before it
+        List<Student> buffered = new ArrayList<>(pending.values());
+        Set<String> bufferedIds = new HashSet<>();
+        for (Student student : buffered)
+            bufferedIds.add(student.getId());
+        TreeMap<String, StudentResponse> merged = new TreeMap<>();
+        for (StudentResponse row : rows) {
+            if (!bufferedIds.contains(row.getId()))
+                merged.put(row.getId(), row);
+        }
+        for (Student student : buffered) {
+            String id = student.getId();
+            if (!student.isActive() || (after != null && id.compareTo(after) <= 0)
+                    || (upTo != null && id.compareTo(upTo) > 0))
+                continue;
+            StudentResponse response = StudentMapper.toStudentResponse(student);
+            if (matches.test(response))
+                merged.put(id, response);
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Buffers the latest state of a student, stamped with its change sequence, replacing any
+     * update still waiting for the same id.
+     */
+    public void enqueue(Student student) {
+        Student superseded = pending.put(student.getId(), student);
+        if (superseded != null)
+            studentChangeSequence.end(superseded.getChangeSeq());
+        if (pending.size() >= maxPending)
+            flusher.execute(this::flushQuietly);
+    }
+
+    /**
+     * Drops the waiting update of a student that is about to be deleted. Waits for a flush in
+     * progress so the update cannot land after the delete.
+     */
+    public void discard(String id) {
+        if (!enabled)
+            return;
+        synchronized (flushLock) {
+            Student discarded = pending.remove(id);
+            if (discarded != null)
+                studentChangeSequence.end(discarded.getChangeSeq());
+        }
+    }
+
+    public void flush() {
+        synchronized (flushLock) {
+            List<Student> students = new ArrayList<>(pending.values());
+            if (students.isEmpty())
+                return;
+            for (List<Student> shardStudents : studentShards.partition(students, Student::getId).values())
+                flush(shardStudents);
+        }
+    }
+
+    private void flush(List<Student> shardStudents) {
+        int[] updated;
+        try {
+            updated = write(shardStudents);
+        } catch (DataAccessException e) {
+            log.warn("Writing {} buffered student updates as a batch failed, retrying row by row",
+                    shardStudents.size(), e);
+            for (Student student : shardStudents)
+                flushRow(student);
+            return;
+        }
+        for (int i = 0; i < shardStudents.size(); i++)
+            written(shardStudents.get(i), updated[i]);
+    }
+
+    private void flushRow(Student student) {
+        int updated;
+        try {
+            updated = write(Collections.singletonList(student))[0];
+        } catch (DataIntegrityViolationException e) {
+            log.error("Dropping buffered update of student {}, the database rejected it", student.getId(), e);
+            updated = 0;
+        }
+        written(student, updated);
+    }
+
+    private int[] write(List<Student> students) {
+        int[][] updated = studentShards.onShardOf(students.get(0).getId(), () -> jdbcTemplate.batchUpdate(
+                UPDATE_SQL, students, students.size(), (statement, student) -> {
+                    statement.setString(1, student.getName());
+                    statement.setBoolean(2, student.isActive());
+                    statement.setLong(3, student.getChangeSeq());
+                    statement.setString(4, student.getId());
+                }));
+        return updated[0];
+    }
+
+    /**
+     * Completes a buffered update once its write has committed, or has been dropped.
+     */
+    private void written(Student student, int updated) {
+        if (updated == 0 && studentArchiver != null && studentArchiver.isEnabled())
+            studentArchiver.restore(student.getId(), student.getName(), student.isActive(), student.getChangeSeq());
+        // a newer update that arrived during the write stays buffered for the next flush
+        if (pending.remove(student.getId(), student))
+            studentChangeSequence.end(student.getChangeSeq());
+        // list tags handed out while the update was buffered may name pages read around it
+        studentListVersion.changed();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Flushing {} buffered student updates failed, retrying on the next flush", pending.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (flusher == null)
+            return;
+        flusher.shutdown();
+        flusher.awaitTermination(10, TimeUnit.SECONDS);
+        for (int attempt = 1; attempt <= SHUTDOWN_FLUSH_ATTEMPTS && !pending.isEmpty(); attempt++) {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.warn("Draining {} buffered student updates on shutdown failed, retrying", pending.size(), e);
+                if (attempt < SHUTDOWN_FLUSH_ATTEMPTS)
+                    Thread.sleep(SHUTDOWN_RETRY_MILLIS * attempt);
+            }
+        }
+        if (!pending.isEmpty())
+            log.error("Lost {} buffered student updates on shutdown, ids {}", pending.size(), pending.keySet());
+    }
+}
@@ -12,6 +12,7 @@ public class DataResponse<T> {
     private T data;
     private ErrorCode errorCode;
     private String message;
+    private String nextCursor;
 
     public static DataResponse successNoData() {
         return DataResponse.builder().build();
@@ -23,6 +24,13 @@ public class DataResponse<T> {
                 .build();
     }
 
+    public static <T> DataResponse<T> successWithData(T data, String nextCursor) {
+        return DataResponse.<T>builder()
+                .data(data)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
     public static DataResponse error(ErrorCode errorCode, String message) {
         return DataResponse.builder()
                 .errorCode(errorCode)
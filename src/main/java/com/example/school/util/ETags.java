@@ -0,0 +1,48 @@
+package com.example.school.util;
+
+import com.example.school.model.Student;
+
+import java.util.Objects;
+
+public final class ETags {
+
+    private ETags() {
+    }
+
+    public static String of(String value) {
+        return "\"" + value + "\"";
+    }
+
+    /**
+     * Tag of one page of the listing. Take the version before reading the page, so a write
+     * racing with the read yields an older tag, never a newer one.
+     */
+    public static String ofPage(String listVersion, String after, int size) {
+        return of(listVersion + "-" + Integer.toHexString(Objects.hash(after, size)));
+    }
+
+    /**
+     * Tag of a student. The content hash keeps a deleted and re-created student, whose version
+     * restarts, from matching.
+     */
+    public static String ofStudent(Student student) {
+        return of(student.getVersion() + "-" + Integer.toHexString(Objects.hash(student.getName(), student.isActive())));
+    }
+
+    /**
+     * Weak comparison of an {@code If-None-Match} header against an entity tag, as required for
+     * conditional GET.
+     */
+    public static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(eTag))
+                return true;
+        }
+        return false;
+    }
+}
@@ -3,4 +3,5 @@ package com.example.school.util;
 public final class ErrorMessageUtils {
     public static final String MSG_ENTITY_FOUND = "entity found";
     public static final String MSG_ENTITY_NOT_FOUND = "entity not found";
+    public static final String MSG_SERVICE_BUSY = "service busy, retry later";
 }
@@ -0,0 +1,26 @@
+package com.example.school.util;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+/**
+ * Recreates the schema of one H2 database, without its rows, in another. Used to set up the
+ * embedded databases that stand in for a replica or for shards, where only the first database
+ * gets the JPA schema.
+ */
+public final class H2Schema {
+
+    private H2Schema() {
+    }
+
+    public static void copy(JdbcTemplate source, JdbcTemplate target) {
+        List<String> statements = source.queryForList("script nodata", String.class);
+        target.execute("drop all objects");
+        for (String statement : statements) {
+            // comments only carry row counts, and the users already exist in the target
+            if (!statement.startsWith("--") && !statement.startsWith("CREATE USER"))
+                target.execute(statement);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.school.util;
+
+import com.example.school.exception.ServiceBusyException;
+import com.example.school.repository.QueryCountInspector;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RxJava scheduler for blocking repository work, sized to the connection pool.
+ * <p>
+ * Admission is bounded by a semaphore of {@code threads + queueCapacity} permits taken when a
+ * source is subscribed and released when it terminates or is disposed. A request that finds no
+ * permit fails immediately with {@link ServiceBusyException} instead of queueing without bound.
+ * The semaphore is used rather than a bounded executor queue because {@code Schedulers.from}
+ * reports rejected tasks to {@code RxJavaPlugins} instead of to the subscriber.
+ * <p>
+ * Once bound to a registry, every scheduled operation records the time it waited for a thread,
+ * the time it executed, its end-to-end latency and the number of SQL statements it issued,
+ * tagged with the operation name.
+ */
+public class RepositoryScheduler implements MeterBinder {
+
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+    private final ThreadPoolExecutor executor;
+
+    private final Scheduler scheduler;
+
+    private final Semaphore permits;
+
+    private final Map<String, OperationMeters> operationMeters = new ConcurrentHashMap<>();
+
+    private volatile MeterRegistry registry;
+
+    public RepositoryScheduler(int threads, int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new RepositoryThreadFactory());
+        this.scheduler = Schedulers.from(executor);
+        this.permits = new Semaphore(threads + queueCapacity);
+    }
+
+    public <T> Single<T> schedule(String operation, Single<T> source) {
+        return Single.defer(() -> {
+            if (!permits.tryAcquire())
+                return Single.error(new ServiceBusyException());
+            OperationSample sample = new OperationSample(operation);
+            return source.doOnSubscribe(disposable -> sample.started())
+                    .doOnEvent((value, error) -> sample.executed())
+                    .subscribeOn(scheduler)
+                    .doFinally(() -> release(sample));
+        });
+    }
+
+    public Completable schedule(String operation, Completable source) {
+        return Completable.defer(() -> {
+            if (!permits.tryAcquire())
+                return Completable.error(new ServiceBusyException());
+            OperationSample sample = new OperationSample(operation);
+            return source.doOnSubscribe(disposable -> sample.started())
+                    .doOnEvent(error -> sample.executed())
+                    .subscribeOn(scheduler)
+                    .doFinally(() -> release(sample));
+        });
+    }
+
+    /**
+     * Holds its permit for the whole stream, but a thread only while it emits. The subscription
+     * and every downstream request run as tasks of one scheduler worker, one after the other but
+     * not necessarily on the same pool thread, and the thread goes back to the pool between
+     * requests. That is safe for a source whose state is confined to the stream, such as the
+     * export cursor, which owns its entity manager; it is not for thread-bound state such as a
+     * transaction bound by Spring to the subscribing thread.
+     */
+    public <T> Flowable<T> schedule(String operation, Flowable<T> source) {
+        return Flowable.defer(() -> {
+            if (!permits.tryAcquire())
+                return Flowable.error(new ServiceBusyException());
+            OperationSample sample = new OperationSample(operation);
+            return source.doOnSubscribe(subscription -> sample.started())
+                    .doOnTerminate(sample::executed)
+                    .subscribeOn(scheduler)
+                    .doFinally(() -> release(sample));
+        });
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("students.scheduler.queue.depth", this, RepositoryScheduler::getQueueDepth)
+                .description("Repository tasks waiting for a thread")
+                .register(registry);
+        Gauge.builder("students.scheduler.active", this, RepositoryScheduler::getActiveCount)
+                .description("Repository threads running a task")
+                .register(registry);
+        Gauge.builder("students.scheduler.permits.available", this, RepositoryScheduler::getAvailablePermits)
+                .description("Requests that can still be admitted before failing fast")
+                .register(registry);
+        this.registry = registry;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void release(OperationSample sample) {
+        permits.release();
+        sample.finished();
+    }
+
+    private OperationMeters meters(String operation) {
+        MeterRegistry meterRegistry = registry;
+        if (meterRegistry == null)
+            return null;
+        return operationMeters.computeIfAbsent(operation, name -> new OperationMeters(meterRegistry, name));
+    }
+
+    private static class OperationMeters {
+        private final Timer wait;
+        private final Timer execution;
+        private final Timer total;
+        private final DistributionSummary queries;
+
+        OperationMeters(MeterRegistry registry, String operation) {
+            this.wait = Timer.builder("students.scheduler.wait")
+                    .description("Time between admission and start of execution on a repository thread")
+                    .tag("operation", operation)
+                    .publishPercentiles(PERCENTILES)
+                    .register(registry);
+            this.execution = Timer.builder("students.service.execution")
+                    .description("Time a service operation spent executing on a repository thread")
+                    .tag("operation", operation)
+                    .publishPercentiles(PERCENTILES)
+                    .register(registry);
+            this.total = Timer.builder("students.service")
+                    .description("End-to-end latency of a service operation, scheduler wait included")
+                    .tag("operation", operation)
+                    .publishPercentiles(PERCENTILES)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            this.queries = DistributionSummary.builder("students.repository.queries")
+                    .description("SQL statements issued by one service operation")
+                    .tag("operation", operation)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Timestamps of one scheduled operation. Query counts are only recorded when the operation
+     * terminated on the thread it started on, since the counter is thread-local.
+     */
+    private class OperationSample {
+        private final String operation;
+        private final long admittedAt = System.nanoTime();
+        private volatile long startedAt;
+        private volatile long executedAt;
+        private volatile Thread startThread;
+        private volatile long startQueries;
+
+        OperationSample(String operation) {
+            this.operation = operation;
+        }
+
+        void started() {
+            startedAt = System.nanoTime();
+            startThread = Thread.currentThread();
+            startQueries = QueryCountInspector.currentCount();
+        }
+
+        void executed() {
+            executedAt = System.nanoTime();
+            OperationMeters operationMeters = meters(operation);
+            if (operationMeters != null && startThread == Thread.currentThread())
+                operationMeters.queries.record(QueryCountInspector.currentCount() - startQueries);
+        }
+
+        void finished() {
+            OperationMeters operationMeters = meters(operation);
+            if (operationMeters == null || startedAt == 0L)
+                return;
+            long finishedAt = System.nanoTime();
+            operationMeters.wait.record(startedAt - admittedAt, TimeUnit.NANOSECONDS);
+            operationMeters.execution.record((executedAt == 0L ? finishedAt : executedAt) - startedAt, TimeUnit.NANOSECONDS);
+            operationMeters.total.record(finishedAt - admittedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static class RepositoryThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "repository-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.school.util;
+
+import com.example.school.model.Student;
+import com.example.school.model.StudentResponse;
+
+public final class StudentMapper {
+
+    private StudentMapper() {
+    }
+
+    public static StudentResponse toStudentResponse(Student student) {
+        return new StudentResponse(student.getId(), student.getName(), student.isActive());
+    }
+
+    public static Student toStudent(String id, Student student) {
+        return new Student(id, student.getName(), student.isActive());
+    }
+}
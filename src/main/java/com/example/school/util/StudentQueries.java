@@ -0,0 +1,81 @@
+package com.example.school.util;
+
+import com.example.school.model.StudentResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Paging and matching helpers shared by the blocking and reactive student services.
+ */
+public final class StudentQueries {
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private StudentQueries() {
+    }
+
+    /**
+     * Cuts a page out of up to {@code pageSize + 1} students in id order; the extra one only
+     * tells whether there is a next page.
+     */
+    public static CursorPage<StudentResponse> toCursorPage(List<StudentResponse> students, int pageSize) {
+        if (students.size() <= pageSize)
+            return new CursorPage<>(students, null);
+        List<StudentResponse> page = new ArrayList<>(students.subList(0, pageSize));
+        return new CursorPage<>(page, page.get(pageSize - 1).getId());
+    }
+
+    /**
+     * Escapes the wildcards of a {@code like} pattern, for use with {@code escape '\'}.
+     */
+    public static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * Splits a name or a search query into lowercase tokens of letters and digits.
+     */
+    public static List<String> nameTokens(String text) {
+        if (text == null)
+            return Collections.emptyList();
+        List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty())
+                tokens.add(token);
+        }
+        return tokens;
+    }
+
+    /**
+     * Whether every query token prefixes some token of the name, the match of student search
+     * with or without the name index.
+     */
+    public static boolean matchesName(String name, List<String> queryTokens) {
+        List<String> nameTokens = nameTokens(name);
+        for (String queryToken : queryTokens) {
+            boolean found = false;
+            for (String nameToken : nameTokens) {
+                if (nameToken.startsWith(queryToken)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A {@code like} pattern, for use with {@code escape '\'}, finding the names that may match
+     * the query: those containing its longest token, which usually rules out the most rows.
+     */
+    public static String nameCandidatePattern(List<String> queryTokens) {
+        return "%" + escapeLike(Collections.max(queryTokens, Comparator.comparingInt(String::length))) + "%";
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.school.resource;
+
+import com.example.school.exception.ErrorCode;
+import com.example.school.exception.StudentNotFoundException;
+import com.example.school.model.Student;
+import com.example.school.model.StudentBatchResult;
+import com.example.school.service.StudentService;
+import com.example.school.util.ETags;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringRunner.class)
+@WebFluxTest(ReactiveStudentRestController.class)
+@ActiveProfiles("reactive")
+public class ReactiveStudentRestControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    private StudentService studentService;
+
+    @Test
+    public void shouldGetStudentAndHonourIfNoneMatch() {
+        Student student = new Student("1", "David", true, 3L);
+        when(studentService.getStudentDetail("1"))
+                .thenReturn(Single.just(student));
+
+        webTestClient.get().uri("/students/1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", ETags.ofStudent(student))
+                .expectBody().jsonPath("$.data.name").isEqualTo("David");
+
+        webTestClient.get().uri("/students/1")
+                .header("If-None-Match", ETags.ofStudent(student))
+                .exchange()
+                .expectStatus().isNotModified();
+    }
+
+    @Test
+    public void shouldFailGetStudent() {
+        when(studentService.getStudentDetail(anyString()))
+                .thenReturn(Single.error(new StudentNotFoundException()));
+
+        webTestClient.get().uri("/students/1")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody().jsonPath("$.errorCode").isEqualTo(ErrorCode.ENTITY_NOT_FOUND.toString());
+    }
+
+    @Test
+    public void shouldImportNdjsonStream() {
+        StudentBatchResult batchResult = new StudentBatchResult();
+        batchResult.addCreated(2);
+        when(studentService.newStudents(argThat(students -> students.size() == 2)))
+                .thenReturn(Single.just(batchResult));
+
+        webTestClient.post().uri("/students/batch")
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .bodyValue("{\"id\":\"1\",\"name\":\"David\",\"active\":true}\n{\"id\":\"2\",\"name\":\"Tom\",\"active\":false}\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.data.created").isEqualTo(2);
+
+        verify(studentService, times(1)).newStudents(argThat(students -> students.size() == 2));
+    }
+
+    @Test
+    public void shouldExportNdjson() {
+        when(studentService.exportStudents())
+                .thenReturn(Flowable.just(new Student("1", "David", true), new Student("2", "Tom", false)));
+
+        webTestClient.get().uri("/students/export")
+                .accept(MediaType.parseMediaType("application/x-ndjson"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .isEqualTo("{\"id\":\"1\",\"name\":\"David\",\"active\":true}\n{\"id\":\"2\",\"name\":\"Tom\",\"active\":false}\n");
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.school.config;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * R2DBC access for the {@code reactive} profile. The JPA data source stays up in this profile
+ * only to own the schema, and the R2DBC URL points at the same in-memory database. The R2DBC
+ * transaction manager is kept out of the context, so {@code @Transactional} still resolves to
+ * the JPA one; reactive code demarcates through the {@link TransactionalOperator} instead.
+ * Connections are pooled and sized like the Hikari pool of the blocking stack, so the two
+ * stacks compare like for like.
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionPool connectionFactory(@Value("${school.reactive.r2dbc-url}") String url,
+                                            @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize) {
+        return new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(url))
+                .initialSize(poolSize)
+                .maxSize(poolSize)
+                .build());
+    }
+
+    @Bean
+    public DatabaseClient databaseClient(ConnectionFactory connectionFactory) {
+        return DatabaseClient.create(connectionFactory);
+    }
+
+    @Bean
+    public TransactionalOperator reactiveTransactionalOperator(ConnectionFactory connectionFactory) {
+        return TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.school.resource;
+
+import com.example.school.model.Student;
+import com.example.school.model.StudentBatchResult;
+import com.example.school.model.StudentChange;
+import com.example.school.model.StudentResponse;
+import com.example.school.service.StudentService;
+import com.example.school.util.DataResponse;
+import com.example.school.util.ETags;
+import com.example.school.util.StudentMapper;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * The {@code /students} contract on WebFlux for the {@code reactive} profile. The service is
+ * non-blocking, so handlers return its types directly instead of going through the repository
+ * scheduler.
+ */
+@RestController
+@Profile("reactive")
+@RequestMapping(value = "/students")
+public class ReactiveStudentRestController {
+
+    private static final String DEFAULT_PAGE_SIZE = "50";
+
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private static final String LAST_EVENT_ID = "Last-Event-ID";
+
+    @Autowired
+    private StudentService studentService;
+
+    @PostMapping()
+    public Single<ResponseEntity> newStudent(@RequestBody Student newStudentRequest) {
+        return studentService.newStudent(newStudentRequest).map(
+            student -> ResponseEntity.created(URI.create("/students/" + student))
+                    .body(DataResponse.successNoData()));
+    }
+
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Single<ResponseEntity<DataResponse<StudentBatchResult>>> newStudents(
+        @RequestBody List<Student> newStudentsRequest) {
+        return importStudents(newStudentsRequest);
+    }
+
+    @PostMapping(value = "/batch", consumes = APPLICATION_NDJSON_VALUE)
+    public Single<ResponseEntity<DataResponse<StudentBatchResult>>> newStudentsNdjson(
+        @RequestBody Flowable<Student> newStudentsRequest) {
+        return newStudentsRequest.toList().flatMap(this::importStudents);
+    }
+
+    private Single<ResponseEntity<DataResponse<StudentBatchResult>>> importStudents(List<Student> students) {
+        return studentService.newStudents(students)
+                .map(batchResult -> ResponseEntity.ok(DataResponse.successWithData(batchResult)));
+    }
+
+    @PutMapping(value = "/{studentId}")
+    public Single<ResponseEntity> updateStudent(@PathVariable(value = "studentId") String studentId,
+                                                @RequestBody Student updateStudentRequest) {
+        Student updateStudent = StudentMapper.toStudent(studentId, updateStudentRequest);
+        return studentService.updateStudent(updateStudent)
+                .toSingle(() -> ResponseEntity.ok(DataResponse.successNoData()));
+    }
+
+    @GetMapping()
+    public Single<ResponseEntity<DataResponse<List<StudentResponse>>>> getAllStudents(
+            @RequestParam(value = "size", defaultValue = DEFAULT_PAGE_SIZE) int size,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = ETags.ofPage(studentService.getStudentsVersion(), after, size);
+        if (ETags.matches(ifNoneMatch, eTag))
+            return Single.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag)
+                    .<DataResponse<List<StudentResponse>>>build());
+        return studentService.getActiveStudents(after, size)
+                .map(studentPage -> ResponseEntity.ok().eTag(eTag).body(DataResponse.successWithData(
+                        studentPage.getItems(), studentPage.getNextCursor())));
+    }
+
+    @GetMapping(value = "/changes")
+    public Single<ResponseEntity<DataResponse<List<StudentChange>>>> getChanges(
+            @RequestParam(value = "since", defaultValue = "0") long since,
+            @RequestParam(value = "size", defaultValue = DEFAULT_PAGE_SIZE) int size) {
+        return studentService.getChanges(since, size)
+                .map(changePage -> ResponseEntity.ok(DataResponse.successWithData(changePage.getItems(),
+                        changePage.getNextCursor())));
+    }
+
+    @GetMapping(value = "/search")
+    public Single<ResponseEntity<DataResponse<List<StudentResponse>>>> searchStudents(
+            @RequestParam(value = "q") String query,
+            @RequestParam(value = "size", defaultValue = DEFAULT_PAGE_SIZE) int size,
+            @RequestParam(value = "after", required = false) String after) {
+        return studentService.searchStudents(query, after, size)
+                .map(studentPage -> ResponseEntity.ok(DataResponse.successWithData(studentPage.getItems(),
+                        studentPage.getNextCursor())));
+    }
+
+    @GetMapping(params = "ids")
+    public Single<ResponseEntity<DataResponse<List<StudentResponse>>>> getStudents(
+            @RequestParam(value = "ids") List<String> ids) {
+        return lookupStudents(ids);
+    }
+
+    @PostMapping(value = "/lookup")
+    public Single<ResponseEntity<DataResponse<List<StudentResponse>>>> lookupStudents(@RequestBody List<String> ids) {
+        return studentService.getStudents(ids)
+                .map(students -> ResponseEntity.ok(DataResponse.successWithData(students.stream()
+                        .map(StudentMapper::toStudentResponse)
+                        .collect(Collectors.toList()))));
+    }
+
+    @GetMapping(value = "/export", produces = APPLICATION_NDJSON_VALUE)
+    public Flowable<Student> exportStudents() {
+        return studentService.exportStudents();
+    }
+
+    /**
+     * Server-sent events of student writes. A client that falls behind its buffer is sent a final
+     * {@code reset} event naming the last event it received, and the stream ends normally.
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flowable<ServerSentEvent<Object>> streamStudents(
+            @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId) {
+        AtomicReference<String> lastSentId = new AtomicReference<>(lastEventId);
+        return studentService.streamChanges(lastEventId)
+                .doOnNext(event -> lastSentId.set(event.getId()))
+                .map(event -> ServerSentEvent.builder(event.getData())
+                        .id(event.getId())
+                        .event(event.getType().name().toLowerCase(Locale.ROOT))
+                        .build())
+                .onErrorReturn(error -> ServerSentEvent.<Object>builder(
+                        Collections.singletonMap("lastEventId", lastSentId.get()))
+                        .event("reset")
+                        .build());
+    }
+
+    @GetMapping(value = "/{studentId}")
+    public Single<ResponseEntity<DataResponse<StudentResponse>>> getStudentDetail(
+            @PathVariable(value = "studentId") String studentId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return studentService.getStudentDetail(studentId).map(student -> {
+            String eTag = ETags.ofStudent(student);
+            if (ETags.matches(ifNoneMatch, eTag))
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).<DataResponse<StudentResponse>>build();
+            return ResponseEntity.ok().eTag(eTag).body(DataResponse.successWithData(StudentMapper.toStudentResponse(student)));
+        });
+    }
+
+    @DeleteMapping(value = "/{studentId}")
+    public Single<ResponseEntity> deleteStudent(@PathVariable(value = "studentId") String studentId) {
+        return studentService.deleteStudent(studentId)
+                .toSingle(() -> ResponseEntity.ok(DataResponse.successNoData()));
+    }
+
+}
@@ -0,0 +1,366 @@
+package com.example.school.service.impl;
+
+import com.example.school.exception.StudentAlreadyExistsException;
+import com.example.school.exception.StudentNotFoundException;
+import com.example.school.model.Student;
+import com.example.school.model.StudentBatchResult;
+import com.example.school.model.StudentChange;
+import com.example.school.model.StudentEvent;
+import com.example.school.model.StudentResponse;
+import com.example.school.service.StudentService;
+import com.example.school.util.CursorPage;
+import com.example.school.util.StudentQueries;
+import io.r2dbc.spi.Row;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link StudentService} for the {@code reactive} profile. Every operation is a non-blocking
+ * R2DBC statement, so nothing is parked on the repository scheduler and a small event loop
+ * serves all connections. The in-memory read paths of the blocking implementation (detail
+ * cache, indexes, id filter, write-behind) are not part of this stack; listing version, change
+ * sequence and change feed are shared, so ETags, delta sync and the stream behave the same.
+ */
+@Service
+@Profile("reactive")
+// the JPA entity manager factory creates the schema this service reads at startup
+@DependsOn("entityManagerFactory")
+public class ReactiveStudentServiceImpl implements StudentService {
+
+    private static final String STUDENT_COLUMNS = "id, name, active, version, change_seq";
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @Autowired
+    private TransactionalOperator reactiveTransactionalOperator;
+
+    @Autowired
+    private StudentListVersion studentListVersion;
+
+    @Autowired
+    private StudentChangeSequence studentChangeSequence;
+
+    @Autowired
+    private StudentChangeFeed studentChangeFeed;
+
+    @PostConstruct
+    public void startChangeSequence() {
+        Long lastStored = databaseClient.sql("select greatest((select coalesce(max(change_seq), 0) from students),"
+                + " (select coalesce(max(change_seq), 0) from student_tombstones)) as last_seq")
+                .map(row -> row.get("last_seq", Long.class))
+                .one()
+                .block();
+        studentChangeSequence.start(lastStored == null ? 0L : lastStored);
+    }
+
+    @Override
+    public Single<String> newStudent(Student student) {
+        return insertStudent(student).flatMap(created -> {
+            if (!created)
+                return Single.<String>error(StudentAlreadyExistsException.INSTANCE);
+            publish(StudentEvent.Type.CREATED, student);
+            return Single.just(student.getId());
+        });
+    }
+
+    /**
+     * Completes with {@code false} instead of failing when the id is already taken.
+     */
+    private Single<Boolean> insertStudent(Student student) {
+        return Single.defer(() -> {
+            long changeSeq = studentChangeSequence.begin();
+            student.setChangeSeq(changeSeq);
+            Mono<Integer> insert = bindName(databaseClient.sql("insert into students (" + STUDENT_COLUMNS + ", updated_at)"
+                    + " values (:id, :name, :active, 0, :changeSeq, current_timestamp)"), student.getName())
+                    .bind("id", student.getId())
+                    .bind("active", student.isActive())
+                    .bind("changeSeq", changeSeq)
+                    .fetch()
+                    .rowsUpdated();
+            return Single.fromPublisher(insert)
+                    .map(inserted -> {
+                        studentListVersion.changed();
+                        return true;
+                    })
+                    .onErrorResumeNext(error -> error instanceof DataIntegrityViolationException
+                            ? Single.just(false)
+                            : Single.<Boolean>error(error))
+                    .doFinally(() -> studentChangeSequence.end(changeSeq));
+        });
+    }
+
+    @Override
+    public Single<StudentBatchResult> newStudents(List<Student> students) {
+        return Single.defer(() -> {
+            StudentBatchResult result = new StudentBatchResult();
+            Set<String> seenIds = new HashSet<>();
+            List<Student> candidates = new ArrayList<>(students.size());
+            List<StudentChange> created = new ArrayList<>();
+            for (Student student : students) {
+                if (student.getId() == null)
+                    result.addRejected();
+                else if (!seenIds.add(student.getId()))
+                    result.addConflict(student.getId());
+                else
+                    candidates.add(student);
+            }
+            return Flowable.fromIterable(candidates)
+                    .concatMapSingle(student -> insertStudent(student).doOnSuccess(inserted -> {
+                        if (inserted) {
+                            result.addCreated(1);
+                            created.add(toChange(student));
+                        } else
+                            result.addConflict(student.getId());
+                    }))
+                    .ignoreElements()
+                    // one event for the whole import, so a large import cannot overrun the subscribers' buffers
+                    .doOnComplete(() -> studentChangeFeed.publishImport(created))
+                    .toSingleDefault(result);
+        });
+    }
+
+    @Override
+    public Completable updateStudent(Student studentData) {
+        return Completable.defer(() -> {
+            long changeSeq = studentChangeSequence.begin();
+            Mono<Integer> update = bindName(databaseClient.sql("update students set name = :name, active = :active,"
+                    + " version = version + 1, change_seq = :changeSeq, updated_at = current_timestamp where id = :id"), studentData.getName())
+                    .bind("id", studentData.getId())
+                    .bind("active", studentData.isActive())
+                    .bind("changeSeq", changeSeq)
+                    .fetch()
+                    .rowsUpdated();
+            return Single.fromPublisher(update)
+                    .doFinally(() -> studentChangeSequence.end(changeSeq))
+                    .flatMapCompletable(updated -> {
+                        if (updated == 0)
+                            return Completable.error(new StudentNotFoundException());
+                        studentListVersion.changed();
+                        studentChangeFeed.publish(StudentEvent.Type.UPDATED, new StudentChange(studentData.getId(),
+                                studentData.getName(), studentData.isActive(), changeSeq));
+                        return Completable.complete();
+                    });
+        });
+    }
+
+    @Override
+    public Single<List<StudentResponse>> getAllStudents() {
+        return Single.fromPublisher(databaseClient.sql("select id, name, active from students"
+                + " where active = true order by id")
+                .map(ReactiveStudentServiceImpl::toStudentResponse)
+                .all()
+                .collectList());
+    }
+
+    @Override
+    public Single<CursorPage<StudentResponse>> getActiveStudents(String after, int size) {
+        int pageSize = Math.max(1, Math.min(size, StudentServiceImpl.MAX_PAGE_SIZE));
+        // one extra row tells us whether there is a next page without a count query
+        DatabaseClient.GenericExecuteSpec query = after == null
+                ? databaseClient.sql("select id, name, active from students where active = true"
+                        + " order by id limit :limit")
+                : databaseClient.sql("select id, name, active from students where active = true and id > :after"
+                        + " order by id limit :limit").bind("after", after);
+        return Single.fromPublisher(query.bind("limit", pageSize + 1)
+                .map(ReactiveStudentServiceImpl::toStudentResponse)
+                .all()
+                .collectList())
+                .map(students -> StudentQueries.toCursorPage(students, pageSize));
+    }
+
+    @Override
+    public Single<CursorPage<StudentResponse>> searchStudents(String query, String after, int size) {
+        int pageSize = Math.max(1, Math.min(size, StudentServiceImpl.MAX_PAGE_SIZE));
+        List<String> queryTokens = StudentQueries.nameTokens(query);
+        if (queryTokens.isEmpty())
+            return Single.just(new CursorPage<>(Collections.<StudentResponse>emptyList(), null));
+        // the same match as the name index: rows containing the longest token are read in pages
+        // and kept when every query token prefixes one of their name tokens
+        return searchStudents(StudentQueries.nameCandidatePattern(queryTokens), queryTokens, after, pageSize,
+                new ArrayList<>())
+                .map(students -> StudentQueries.toCursorPage(students, pageSize));
+    }
+
+    private Single<List<StudentResponse>> searchStudents(String namePattern, List<String> queryTokens, String after,
+                                                         int pageSize, List<StudentResponse> found) {
+        String sql = "select id, name, active from students where active = true"
+                + " and lower(name) like :namePattern escape '\\'"
+                + (after == null ? "" : " and id > :after") + " order by id limit :limit";
+        DatabaseClient.GenericExecuteSpec search = databaseClient.sql(sql)
+                .bind("namePattern", namePattern)
+                .bind("limit", pageSize + 1);
+        if (after != null)
+            search = search.bind("after", after);
+        return Single.fromPublisher(search.map(ReactiveStudentServiceImpl::toStudentResponse).all().collectList())
+                .flatMap(rows -> {
+                    for (StudentResponse row : rows) {
+                        if (StudentQueries.matchesName(row.getName(), queryTokens))
+                            found.add(row);
+                    }
+                    if (rows.size() <= pageSize || found.size() > pageSize)
+                        return Single.just(found);
+                    return searchStudents(namePattern, queryTokens, rows.get(rows.size() - 1).getId(), pageSize,
+                            found);
+                });
+    }
+
+    @Override
+    public Single<CursorPage<StudentChange>> getChanges(long since, int size) {
+        return Single.defer(() -> {
+            int pageSize = Math.max(1, Math.min(size, StudentServiceImpl.MAX_PAGE_SIZE));
+            // nothing past the committed watermark is read, so a slower write can never land behind a cursor
+            long until = studentChangeSequence.committed();
+            Flux<StudentChange> changes = databaseClient.sql("select id, name, active, change_seq from students"
+                    + " where change_seq > :since and change_seq <= :until order by change_seq limit :limit")
+                    .bind("since", since)
+                    .bind("until", until)
+                    .bind("limit", pageSize + 1)
+                    .map(row -> new StudentChange(row.get("id", String.class), row.get("name", String.class),
+                            Boolean.TRUE.equals(row.get("active", Boolean.class)), row.get("change_seq", Long.class)))
+                    .all();
+            Flux<StudentChange> deletions = databaseClient.sql("select id, change_seq from student_tombstones"
+                    + " where change_seq > :since and change_seq <= :until order by change_seq limit :limit")
+                    .bind("since", since)
+                    .bind("until", until)
+                    .bind("limit", pageSize + 1)
+                    .map(row -> new StudentChange(row.get("id", String.class), row.get("change_seq", Long.class)))
+                    .all();
+            return Single.fromPublisher(Flux.concat(changes, deletions).collectList())
+                    .map(merged -> {
+                        List<StudentChange> sorted = new ArrayList<>(merged);
+                        sorted.sort(Comparator.comparingLong(StudentChange::getChangeSeq));
+                        if (sorted.size() <= pageSize)
+                            return new CursorPage<>(sorted, String.valueOf(Math.max(since, until)));
+                        List<StudentChange> page = new ArrayList<>(sorted.subList(0, pageSize));
+                        return new CursorPage<>(page, String.valueOf(page.get(pageSize - 1).getChangeSeq()));
+                    });
+        });
+    }
+
+    @Override
+    public Flowable<StudentEvent> streamChanges(String lastEventId) {
+        return studentChangeFeed.subscribe(lastEventId);
+    }
+
+    @Override
+    public String getStudentsVersion() {
+        return studentListVersion.current();
+    }
+
+    @Override
+    public Single<Student> getStudentDetail(String id) {
+        return Single.fromPublisher(databaseClient.sql("select " + STUDENT_COLUMNS + " from students where id = :id")
+                .bind("id", id)
+                .map(ReactiveStudentServiceImpl::toStudent)
+                .one()
+                .switchIfEmpty(Mono.error(new StudentNotFoundException())));
+    }
+
+    @Override
+    public Single<List<Student>> getStudents(List<String> ids) {
+        Set<String> distinctIds = new LinkedHashSet<>(ids);
+        if (distinctIds.isEmpty())
+            return Single.just(Collections.<Student>emptyList());
+        return Single.fromPublisher(databaseClient.sql("select " + STUDENT_COLUMNS + " from students where id in (:ids)")
+                .bind("ids", distinctIds)
+                .map(ReactiveStudentServiceImpl::toStudent)
+                .all()
+                .collectList())
+                .map(students -> {
+                    Map<String, Student> byId = new HashMap<>();
+                    for (Student student : students)
+                        byId.put(student.getId(), student);
+                    List<Student> orderedStudents = new ArrayList<>(students.size());
+                    for (String id : distinctIds) {
+                        Student student = byId.get(id);
+                        if (student != null)
+                            orderedStudents.add(student);
+                    }
+                    return orderedStudents;
+                });
+    }
+
+    @Override
+    public Flowable<Student> exportStudents() {
+        // R2DBC results are backpressured, so rows are pulled only as fast as the response drains
+        return Flowable.fromPublisher(databaseClient.sql("select " + STUDENT_COLUMNS + " from students")
+                .map(ReactiveStudentServiceImpl::toStudent)
+                .all());
+    }
+
+    @Override
+    public Completable deleteStudent(String id) {
+        return Completable.defer(() -> {
+            long changeSeq = studentChangeSequence.begin();
+            Mono<Integer> delete = databaseClient.sql("delete from students where id = :id")
+                    .bind("id", id)
+                    .fetch()
+                    .rowsUpdated()
+                    .flatMap(deleted -> deleted == 0
+                            ? Mono.just(0)
+                            : databaseClient.sql("merge into student_tombstones (id, change_seq, deleted_at) key (id)"
+                                    + " values (:id, :changeSeq, current_timestamp)")
+                                    .bind("id", id)
+                                    .bind("changeSeq", changeSeq)
+                                    .fetch()
+                                    .rowsUpdated()
+                                    .thenReturn(deleted));
+            return Single.fromPublisher(reactiveTransactionalOperator.transactional(delete))
+                    .doFinally(() -> studentChangeSequence.end(changeSeq))
+                    .flatMapCompletable(deleted -> {
+                        if (deleted == 0)
+                            return Completable.error(new StudentNotFoundException());
+                        studentListVersion.changed();
+                        studentChangeFeed.publish(StudentEvent.Type.DELETED, new StudentChange(id, changeSeq));
+                        return Completable.complete();
+                    });
+        });
+    }
+
+    private void publish(StudentEvent.Type type, Student student) {
+        studentChangeFeed.publish(type, toChange(student));
+    }
+
+    private static StudentChange toChange(Student student) {
+        return new StudentChange(student.getId(), student.getName(), student.isActive(), student.getChangeSeq());
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bindName(DatabaseClient.GenericExecuteSpec spec, String name) {
+        return name == null ? spec.bindNull("name", String.class) : spec.bind("name", name);
+    }
+
+    private static StudentResponse toStudentResponse(Row row) {
+        return new StudentResponse(row.get("id", String.class), row.get("name", String.class),
+                Boolean.TRUE.equals(row.get("active", Boolean.class)));
+    }
+
+    private static Student toStudent(Row row) {
+        Long version = row.get("version", Long.class);
+        Long changeSeq = row.get("change_seq", Long.class);
+        return new Student(row.get("id", String.class), row.get("name", String.class),
+                Boolean.TRUE.equals(row.get("active", Boolean.class)),
+                version == null ? 0L : version, changeSeq == null ? 0L : changeSeq);
+    }
+}
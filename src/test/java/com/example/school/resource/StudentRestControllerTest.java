@@ -1,17 +1,29 @@
 package com.example.school.resource;
 
 import com.example.school.exception.BadRequestException;
+import com.example.school.config.SchedulerConfig;
 import com.example.school.exception.ErrorCode;
+import com.example.school.exception.ServiceBusyException;
 import com.example.school.model.Student;
+import com.example.school.model.StudentBatchResult;
+import com.example.school.model.StudentChange;
+import com.example.school.model.StudentEvent;
+import com.example.school.model.StudentResponse;
 import com.example.school.service.StudentService;
+import com.example.school.util.CursorPage;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.exceptions.MissingBackpressureException;
 import io.reactivex.Single;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
@@ -19,11 +31,20 @@ import org.springframework.test.web.servlet.MvcResult;
 
 import javax.persistence.EntityNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -32,11 +53,15 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
 @WebMvcTest(StudentRestController.class)
+@Import(SchedulerConfig.class)
 public class StudentRestControllerTest {
 
     @Autowired
@@ -81,6 +106,47 @@ public class StudentRestControllerTest {
         verify(studentService, times(1)).newStudent(any(Student.class));
     }
 
+    @Test
+    public void shouldNewStudentsFromJsonArray() throws Exception {
+        StudentBatchResult batchResult = new StudentBatchResult();
+        batchResult.addCreated(1);
+        batchResult.addConflict("2");
+        when(studentService.newStudents(argThat(students -> students.size() == 2)))
+                .thenReturn(Single.just(batchResult));
+
+        List<Student> students = new ArrayList<>();
+        students.add(new Student("1", "David", true));
+        students.add(new Student("2", "Marcos", true));
+
+        MvcResult mvcResult = mockMvc.perform(post("/students/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(objectMapper.writeValueAsString(students)))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.created", equalTo(1)))
+                .andExpect(jsonPath("$.data.conflicts[0]", equalTo("2")));
+    }
+
+    @Test
+    public void shouldNewStudentsFromNdjson() throws Exception {
+        when(studentService.newStudents(argThat(students -> students.size() == 2 &&
+                students.get(1).getId().equals("2"))))
+                .thenReturn(Single.just(new StudentBatchResult()));
+
+        MvcResult mvcResult = mockMvc.perform(post("/students/batch")
+                .contentType("application/x-ndjson")
+                .content("{\"id\":\"1\",\"name\":\"David\",\"active\":true}\n"
+                        + "{\"id\":\"2\",\"name\":\"Marcos\",\"active\":true}\n"))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk());
+
+        verify(studentService, times(1)).newStudents(argThat(students -> students.size() == 2));
+    }
+
     @Test
     public void shouldUpdateStudent() throws Exception {
         when(studentService.updateStudent(any(Student.class)))
@@ -117,17 +183,17 @@ public class StudentRestControllerTest {
 
     @Test
     public void shouldGetAllStudentsActives() throws Exception {
-        Student student1 = new Student("1", "David", true);
-        Student student2 = new Student("2", "Marcos", true);
-        Student student3 = new Student("3", "Maria", true);
+        StudentResponse student1 = new StudentResponse("1", "David", true);
+        StudentResponse student2 = new StudentResponse("2", "Marcos", true);
+        StudentResponse student3 = new StudentResponse("3", "Maria", true);
 
-        List<Student> students = new ArrayList<>();
+        List<StudentResponse> students = new ArrayList<>();
         students.add(student1);
         students.add(student2);
         students.add(student3);
 
-        when(studentService.getAllStudents())
-                .thenReturn(Single.just(students));
+        when(studentService.getActiveStudents(isNull(), anyInt()))
+                .thenReturn(Single.just(new CursorPage<>(students, null)));
 
         MvcResult mvcResult = mockMvc.perform(get("/students")
                 .contentType(MediaType.APPLICATION_JSON_VALUE))
@@ -140,9 +206,52 @@ public class StudentRestControllerTest {
                 .andExpect(jsonPath("$.data[1].id", equalTo("2")))
                 .andExpect(jsonPath("$.data[1].name", equalTo("Marcos")))
                 .andExpect(jsonPath("$.data[2].id", equalTo("3")))
-                .andExpect(jsonPath("$.data[2].name", equalTo("Maria")));
+                .andExpect(jsonPath("$.data[2].name", equalTo("Maria")))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+
+        verify(studentService, times(1)).getActiveStudents(isNull(), anyInt());
+    }
+
+    @Test
+    public void shouldGetStudentsPageWithNextCursor() throws Exception {
+        List<StudentResponse> students = new ArrayList<>();
+        students.add(new StudentResponse("3", "Maria", true));
+        students.add(new StudentResponse("5", "Carolina", true));
+
+        when(studentService.getActiveStudents(eq("2"), eq(2)))
+                .thenReturn(Single.just(new CursorPage<>(students, "5")));
+
+        MvcResult mvcResult = mockMvc.perform(get("/students")
+                .param("after", "2")
+                .param("size", "2")
+                .contentType(MediaType.APPLICATION_JSON_VALUE))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data[0].id", equalTo("3")))
+                .andExpect(jsonPath("$.data[1].id", equalTo("5")))
+                .andExpect(jsonPath("$.nextCursor", equalTo("5")));
 
-        verify(studentService, times(1)).getAllStudents();
+        verify(studentService, times(1)).getActiveStudents(eq("2"), eq(2));
+    }
+
+    @Test
+    public void shouldExportStudentsAsNdjson() throws Exception {
+        when(studentService.exportStudents())
+                .thenReturn(Flowable.just(new Student("1", "David", true), new Student("2", "Claudia", false)));
+
+        MvcResult mvcResult = mockMvc.perform(get("/students/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().string("{\"id\":\"1\",\"name\":\"David\",\"active\":true}\n"
+                        + "{\"id\":\"2\",\"name\":\"Claudia\",\"active\":false}\n"));
+
+        verify(studentService, times(1)).exportStudents();
     }
 
     @Test
@@ -161,6 +270,185 @@ public class StudentRestControllerTest {
         verify(studentService, times(1)).getStudentDetail(anyString());
     }
 
+    @Test
+    public void shouldNotModifyAStudentWithSameETag() throws Exception {
+        Student student = new Student("1", "David", true, 3L);
+        when(studentService.getStudentDetail(anyString()))
+                .thenReturn(Single.just(student));
+
+        MvcResult mvcResult = mockMvc.perform(get("/students/1"))
+                .andReturn();
+        String eTag = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mvcResult = mockMvc.perform(get("/students/1").header("If-None-Match", eTag))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", eTag))
+                .andExpect(content().string(""));
+
+        student.setVersion(4L);
+        mvcResult = mockMvc.perform(get("/students/1").header("If-None-Match", eTag))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void shouldNotModifyStudentsWithoutReadingThem() throws Exception {
+        List<StudentResponse> students = new ArrayList<>();
+        students.add(new StudentResponse("1", "David", true));
+        when(studentService.getStudentsVersion())
+                .thenReturn("k1-7");
+        when(studentService.getActiveStudents(isNull(), anyInt()))
+                .thenReturn(Single.just(new CursorPage<>(students, null)));
+
+        MvcResult mvcResult = mockMvc.perform(get("/students"))
+                .andReturn();
+        String eTag = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mvcResult = mockMvc.perform(get("/students").header("If-None-Match", eTag))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isNotModified());
+
+        verify(studentService, times(1)).getActiveStudents(isNull(), anyInt());
+    }
+
+    @Test
+    public void shouldGetChangesSinceCursor() throws Exception {
+        List<StudentChange> changes = new ArrayList<>();
+        changes.add(new StudentChange("1", "David", true, 8L));
+        changes.add(new StudentChange("2", 9L));
+        when(studentService.getChanges(eq(7L), anyInt()))
+                .thenReturn(Single.just(new CursorPage<>(changes, "9")));
+
+        MvcResult mvcResult = mockMvc.perform(get("/students/changes").param("since", "7"))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data[1].deleted", equalTo(true)))
+                .andExpect(jsonPath("$.nextCursor", equalTo("9")));
+    }
+
+    @Test
+    public void shouldStreamChangesAsServerSentEvents() throws Exception {
+        when(studentService.streamChanges(eq("k1-4")))
+                .thenReturn(Flowable.just(new StudentEvent("k1-5", 5L, StudentEvent.Type.DELETED,
+                        new StudentChange("1", 9L))));
+
+        MvcResult mvcResult = mockMvc.perform(get("/students/stream").header("Last-Event-ID", "k1-4"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvcResult.getAsyncResult();
+
+        String body = mvcResult.getResponse().getContentAsString();
+        assertTrue(body.contains("id:k1-5"));
+        assertTrue(body.contains("event:deleted"));
+        assertTrue(body.contains("\"changeSeq\":9"));
+    }
+
+    @Test
+    public void shouldEndStreamWithResetEventWhenClientFallsBehind() throws Exception {
+        when(studentService.streamChanges(isNull()))
+                .thenReturn(Flowable.just(new StudentEvent("k1-5", 5L, StudentEvent.Type.DELETED,
+                        new StudentChange("1", 9L))).concatWith(Flowable.error(new MissingBackpressureException())));
+
+        MvcResult mvcResult = mockMvc.perform(get("/students/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvcResult.getAsyncResult();
+
+        String body = mvcResult.getResponse().getContentAsString();
+        assertEquals(200, mvcResult.getResponse().getStatus());
+        assertTrue(body.contains("event:reset"));
+        assertTrue(body.contains("\"lastEventId\":\"k1-5\""));
+    }
+
+    @Test
+    public void shouldNegotiateSmileAndCborListings() throws Exception {
+        List<StudentResponse> students = new ArrayList<>();
+        students.add(new StudentResponse("1", "David", true));
+        when(studentService.getStudentsVersion())
+                .thenReturn("k1-7");
+        when(studentService.getActiveStudents(isNull(), anyInt()))
+                .thenReturn(Single.just(new CursorPage<>(students, null)));
+
+        MvcResult mvcResult = mockMvc.perform(get("/students").accept("application/x-jackson-smile"))
+                .andReturn();
+        byte[] smile = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-jackson-smile"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        mvcResult = mockMvc.perform(get("/students").accept("application/cbor"))
+                .andReturn();
+        byte[] cbor = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/cbor"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertEquals("1", new ObjectMapper(new SmileFactory()).readTree(smile).at("/data/0/id").asText());
+        assertEquals("David", new ObjectMapper(new CBORFactory()).readTree(cbor).at("/data/0/name").asText());
+    }
+
+    @Test
+    public void shouldSearchStudents() throws Exception {
+        List<StudentResponse> students = new ArrayList<>();
+        students.add(new StudentResponse("1", "David Smith", true));
+        when(studentService.searchStudents(eq("dav"), isNull(), anyInt()))
+                .thenReturn(Single.just(new CursorPage<>(students, "1")));
+
+        MvcResult mvcResult = mockMvc.perform(get("/students/search").param("q", "dav"))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data[0].name", equalTo("David Smith")))
+                .andExpect(jsonPath("$.nextCursor", equalTo("1")));
+
+        verify(studentService, never()).getStudentDetail(anyString());
+    }
+
+    @Test
+    public void shouldGetStudentsByIds() throws Exception {
+        List<Student> students = new ArrayList<>();
+        students.add(new Student("1", "David", true));
+        students.add(new Student("2", "Tom", false));
+        when(studentService.getStudents(Arrays.asList("1", "2")))
+                .thenReturn(Single.just(students));
+
+        MvcResult mvcResult = mockMvc.perform(get("/students").param("ids", "1,2"))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.length()", equalTo(2)))
+                .andExpect(jsonPath("$.data[1].id", equalTo("2")));
+
+        verify(studentService, times(1)).getStudents(Arrays.asList("1", "2"));
+    }
+
+    @Test
+    public void shouldLookupStudentsFromBody() throws Exception {
+        when(studentService.getStudents(Arrays.asList("1", "2")))
+                .thenReturn(Single.just(Collections.singletonList(new Student("1", "David", true))));
+
+        MvcResult mvcResult = mockMvc.perform(post("/students/lookup")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(objectMapper.writeValueAsString(Arrays.asList("1", "2"))))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.length()", equalTo(1)));
+    }
+
     @Test
     public void shouldFailGetStudent() throws Exception {
         when(studentService.getStudentDetail(anyString()))
@@ -178,6 +466,21 @@ public class StudentRestControllerTest {
         verify(studentService, times(1)).getStudentDetail(anyString());
     }
 
+    @Test
+    public void shouldFailFastWhenServiceIsBusy() throws Exception {
+        when(studentService.getStudentDetail(anyString()))
+                .thenReturn(Single.error(new ServiceBusyException()));
+
+        MvcResult mvcResult = mockMvc.perform(get("/students/1")
+                .contentType(MediaType.APPLICATION_JSON_VALUE))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"))
+                .andExpect(jsonPath("$.errorCode", equalTo(ErrorCode.SERVICE_BUSY.toString())));
+    }
+
     @Test
     public void shouldDeleteStudent() throws Exception {
         when(studentService.deleteStudent(anyString()))
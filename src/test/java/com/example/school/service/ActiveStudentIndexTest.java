@@ -0,0 +1,77 @@
+package com.example.school.service;
+
+import com.example.school.model.Student;
+import com.example.school.model.StudentResponse;
+import com.example.school.service.impl.ActiveStudentIndex;
+import com.example.school.util.CursorPage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveStudentIndexTest {
+
+    private ActiveStudentIndex activeStudentIndex;
+
+    @Before
+    public void setUp() {
+        List<StudentResponse> students = new ArrayList<>();
+        students.add(new StudentResponse("3", "Maria", true));
+        students.add(new StudentResponse("1", "David", true));
+        students.add(new StudentResponse("2", "Marcos", true));
+        students.add(new StudentResponse("4", "Claudia", false));
+
+        activeStudentIndex = new ActiveStudentIndex(true);
+        activeStudentIndex.load(students);
+    }
+
+    @Test
+    public void shouldPageActiveStudentsById() {
+        CursorPage<StudentResponse> firstPage = activeStudentIndex.page(null, 2);
+        assertEquals("1", firstPage.getItems().get(0).getId());
+        assertEquals("2", firstPage.getItems().get(1).getId());
+        assertEquals("2", firstPage.getNextCursor());
+
+        CursorPage<StudentResponse> lastPage = activeStudentIndex.page(firstPage.getNextCursor(), 2);
+        assertEquals(1, lastPage.getItems().size());
+        assertEquals("3", lastPage.getItems().get(0).getId());
+        assertNull(lastPage.getNextCursor());
+    }
+
+    @Test
+    public void shouldApplyWritesIncrementally() {
+        activeStudentIndex.apply(new Student("4", "Claudia", true));
+        activeStudentIndex.apply(new Student("2", "Marcos", false));
+        activeStudentIndex.remove("1", 1L);
+
+        List<StudentResponse> students = activeStudentIndex.all();
+        assertEquals(2, students.size());
+        assertEquals("3", students.get(0).getId());
+        assertEquals("4", students.get(1).getId());
+    }
+
+    @Test
+    public void shouldIgnoreWritesArrivingOutOfOrder() {
+        activeStudentIndex.apply(new Student("1", "David", false, 0L, 2L));
+        activeStudentIndex.apply(new Student("1", "David", true, 0L, 1L));
+        activeStudentIndex.remove("3", 4L);
+        activeStudentIndex.apply(new Student("3", "Maria", true, 0L, 3L));
+
+        List<StudentResponse> students = activeStudentIndex.all();
+        assertEquals(1, students.size());
+        assertEquals("2", students.get(0).getId());
+    }
+
+    @Test
+    public void shouldIgnoreWritesWhenDisabled() {
+        ActiveStudentIndex disabledIndex = new ActiveStudentIndex(false);
+        disabledIndex.apply(new Student("1", "David", true));
+
+        assertTrue(disabledIndex.all().isEmpty());
+    }
+}
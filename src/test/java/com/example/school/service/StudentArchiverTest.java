@@ -0,0 +1,85 @@
+package com.example.school.service;
+
+import com.example.school.repository.StudentRepository;
+import com.example.school.service.impl.StudentArchiver;
+import com.example.school.service.impl.StudentChangeSequence;
+import com.example.school.service.impl.StudentShards;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StudentArchiverTest {
+
+    private final StudentRepository studentRepository = mock(StudentRepository.class);
+
+    private final StudentChangeSequence studentChangeSequence = new StudentChangeSequence();
+
+    private final StudentArchiver studentArchiver = new StudentArchiver(studentRepository,
+            new StudentShards(null, false, 1), studentChangeSequence, true, 3600, 0, 2);
+
+    @After
+    public void tearDown() throws InterruptedException {
+        studentArchiver.shutdown();
+    }
+
+    @Test
+    public void shouldArchiveOnTheFirstRunAfterStart() {
+        when(studentRepository.findArchivableIds(any(Instant.class), any(Pageable.class)))
+                .thenReturn(Collections.singletonList("1"));
+        when(studentRepository.archive(anyMap(), any(Instant.class))).thenReturn(1);
+
+        Instant before = Instant.now();
+        assertEquals(1, studentArchiver.archive());
+        Instant after = Instant.now();
+
+        ArgumentCaptor<Instant> cutoff = ArgumentCaptor.forClass(Instant.class);
+        verify(studentRepository).findArchivableIds(cutoff.capture(), any(Pageable.class));
+        assertFalse(cutoff.getValue().isBefore(before.minusSeconds(3600)));
+        assertFalse(cutoff.getValue().isAfter(after.minusSeconds(3600)));
+        verify(studentRepository).archive(anyMap(), eq(cutoff.getValue()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldArchiveInBatchesWithAChangeSeqPerRow() {
+        when(studentRepository.findArchivableIds(any(Instant.class), any(Pageable.class)))
+                .thenReturn(Arrays.asList("1", "2"), Collections.singletonList("3"));
+        when(studentRepository.archive(anyMap(), any(Instant.class))).thenReturn(2, 1);
+
+        assertEquals(3, studentArchiver.archive());
+
+        ArgumentCaptor<Map<String, Long>> changeSeqs = ArgumentCaptor.forClass(Map.class);
+        verify(studentRepository, times(2)).archive(changeSeqs.capture(), any(Instant.class));
+        assertEquals(2, changeSeqs.getAllValues().get(0).size());
+        assertTrue(changeSeqs.getAllValues().get(1).containsKey("3"));
+        assertEquals(studentChangeSequence.begin() - 1, studentChangeSequence.committed());
+    }
+
+    @Test
+    public void shouldStopWhenNoCandidateIsMoved() {
+        when(studentRepository.findArchivableIds(any(Instant.class), any(Pageable.class)))
+                .thenReturn(Arrays.asList("1", "2"));
+        when(studentRepository.archive(anyMap(), any(Instant.class))).thenReturn(0);
+
+        assertEquals(0, studentArchiver.archive());
+
+        verify(studentRepository, times(1)).archive(anyMap(), any(Instant.class));
+    }
+}
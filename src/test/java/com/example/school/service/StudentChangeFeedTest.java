@@ -0,0 +1,105 @@
+package com.example.school.service;
+
+import com.example.school.exception.ServiceBusyException;
+import com.example.school.model.StudentChange;
+import com.example.school.model.StudentEvent;
+import com.example.school.service.impl.StudentChangeFeed;
+import io.reactivex.exceptions.MissingBackpressureException;
+import io.reactivex.subscribers.TestSubscriber;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.fail;
+
+public class StudentChangeFeedTest {
+
+    private final StudentChangeFeed studentChangeFeed = new StudentChangeFeed(10, 2, 2);
+
+    @After
+    public void tearDown() throws InterruptedException {
+        studentChangeFeed.shutdown();
+    }
+
+    @Test
+    public void shouldResumeAfterLastEventId() {
+        studentChangeFeed.publish(StudentEvent.Type.CREATED, new StudentChange("1", "David", true, 1L));
+        TestSubscriber<StudentEvent> live = studentChangeFeed.subscribe(null).test();
+        studentChangeFeed.publish(StudentEvent.Type.UPDATED, new StudentChange("1", "Tom", true, 2L));
+        studentChangeFeed.publish(StudentEvent.Type.DELETED, new StudentChange("1", 3L));
+
+        live.awaitCount(2);
+        live.assertValueCount(2);
+        String lastEventId = live.values().get(0).getId();
+
+        TestSubscriber<StudentEvent> resumed = studentChangeFeed.subscribe(lastEventId).test();
+        resumed.awaitCount(1);
+        resumed.assertValue(event -> event.getType() == StudentEvent.Type.DELETED);
+    }
+
+    @Test
+    public void shouldReplayBufferForUnknownLastEventId() {
+        studentChangeFeed.publish(StudentEvent.Type.CREATED, new StudentChange("1", "David", true, 1L));
+        studentChangeFeed.publish(StudentEvent.Type.CREATED, new StudentChange("2", "Tom", true, 2L));
+
+        TestSubscriber<StudentEvent> resumed = studentChangeFeed.subscribe("older-process-7").test();
+        resumed.awaitCount(2);
+        resumed.assertValueCount(2);
+    }
+
+    @Test
+    public void shouldReplayBacklogLargerThanConsumerBuffer() throws InterruptedException {
+        StudentChangeFeed largeFeed = new StudentChangeFeed(500, 2, 2);
+        for (int i = 1; i <= 500; i++)
+            largeFeed.publish(StudentEvent.Type.CREATED, new StudentChange(String.valueOf(i), "David", true, i));
+
+        TestSubscriber<StudentEvent> resumed = largeFeed.subscribe("older-process-7").test();
+        resumed.awaitCount(500);
+        resumed.assertNoErrors();
+        resumed.assertValueCount(500);
+        largeFeed.shutdown();
+    }
+
+    @Test
+    public void shouldDeliverImportLargerThanConsumerBufferAsOneEvent() {
+        TestSubscriber<StudentEvent> live = studentChangeFeed.subscribe(null).test();
+        List<StudentChange> changes = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++)
+            changes.add(new StudentChange(String.valueOf(i), "David", true, i));
+
+        studentChangeFeed.publishImport(changes);
+
+        live.awaitCount(1);
+        live.assertNoErrors();
+        live.assertValue(event -> event.getType() == StudentEvent.Type.IMPORTED && event.getChanges().size() == 1000);
+    }
+
+    @Test
+    public void shouldRefuseStreamsPastTheLimit() {
+        TestSubscriber<StudentEvent> open = studentChangeFeed.subscribe(null).test();
+        studentChangeFeed.subscribe(null).test();
+
+        try {
+            studentChangeFeed.subscribe(null);
+            fail("Expected the third stream to be refused");
+        } catch (ServiceBusyException expected) {
+            // the client retries later
+        }
+
+        open.cancel();
+        studentChangeFeed.subscribe(null).test().assertNoErrors();
+    }
+
+    @Test
+    public void shouldDropConsumerThatFallsBehind() throws InterruptedException {
+        TestSubscriber<StudentEvent> slow = studentChangeFeed.subscribe(null).test(0);
+        for (int i = 1; i <= 200; i++)
+            studentChangeFeed.publish(StudentEvent.Type.CREATED, new StudentChange(String.valueOf(i), "David", true, i));
+
+        slow.await(5, TimeUnit.SECONDS);
+        slow.assertError(MissingBackpressureException.class);
+    }
+}
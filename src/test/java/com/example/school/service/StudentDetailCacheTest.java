@@ -0,0 +1,30 @@
+package com.example.school.service;
+
+import com.example.school.model.Student;
+import com.example.school.service.impl.StudentDetailCache;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class StudentDetailCacheTest {
+
+    private final StudentDetailCache studentDetailCache = new StudentDetailCache(100, 60);
+
+    @Test
+    public void shouldCacheLoadedStudent() {
+        long epoch = studentDetailCache.epoch("1");
+        studentDetailCache.put(new Student("1", "David", true), epoch);
+
+        assertNotNull(studentDetailCache.getIfPresent("1"));
+    }
+
+    @Test
+    public void shouldDropStudentLoadedBeforeConcurrentWrite() {
+        long epoch = studentDetailCache.epoch("1");
+        studentDetailCache.invalidate("1");
+        studentDetailCache.put(new Student("1", "David", true), epoch);
+
+        assertNull(studentDetailCache.getIfPresent("1"));
+    }
+}
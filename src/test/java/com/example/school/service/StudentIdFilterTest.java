@@ -0,0 +1,53 @@
+package com.example.school.service;
+
+import com.example.school.service.impl.StudentIdFilter;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StudentIdFilterTest {
+
+    private final StudentIdFilter studentIdFilter = new StudentIdFilter(true, 1000, 0.01);
+
+    @Test
+    public void shouldReportEveryIdUntilLoaded() {
+        assertTrue(studentIdFilter.mightContain("1"));
+    }
+
+    @Test
+    public void shouldRejectIdsNeverStored() {
+        studentIdFilter.load("1");
+        studentIdFilter.loaded();
+
+        assertTrue(studentIdFilter.mightContain("1"));
+        assertFalse(studentIdFilter.mightContain("2"));
+    }
+
+    @Test
+    public void shouldForgetDeletedIdsOnly() {
+        studentIdFilter.loaded();
+        studentIdFilter.insertAll(Arrays.asList("1", "2"), () -> { });
+        studentIdFilter.delete("1", () -> 1);
+        studentIdFilter.delete("2", () -> 0);
+
+        assertFalse(studentIdFilter.mightContain("1"));
+        assertTrue(studentIdFilter.mightContain("2"));
+    }
+
+    @Test
+    public void shouldNotCountFailedInserts() {
+        studentIdFilter.loaded();
+        try {
+            studentIdFilter.insert("1", () -> {
+                throw new IllegalStateException();
+            });
+        } catch (IllegalStateException expected) {
+            // the failure is rethrown to the caller
+        }
+
+        assertFalse(studentIdFilter.mightContain("1"));
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.school.service;
+
+import com.example.school.model.Student;
+import com.example.school.repository.StudentRepository;
+import com.example.school.service.impl.StudentLookupBatcher;
+import com.example.school.service.impl.StudentShards;
+import io.reactivex.observers.TestObserver;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StudentLookupBatcherTest {
+
+    private final StudentRepository studentRepository = mock(StudentRepository.class);
+
+    private final StudentLookupBatcher studentLookupBatcher =
+            new StudentLookupBatcher(studentRepository, new StudentShards(null, false, 1), true, 50, 100);
+
+    @After
+    public void tearDown() {
+        studentLookupBatcher.shutdown();
+    }
+
+    @Test
+    public void shouldResolveLookupsInTheSameWindowWithOneQuery() throws InterruptedException {
+        when(studentRepository.findAllById(anyIterable()))
+                .thenReturn(Collections.singletonList(new Student("1", "David", true)));
+
+        TestObserver<Student> first = studentLookupBatcher.load("1").test();
+        TestObserver<Student> second = studentLookupBatcher.load("1").test();
+        TestObserver<Student> missing = studentLookupBatcher.load("2").test();
+
+        first.await().assertValue(student -> student.getId().equals("1"));
+        second.await().assertValue(student -> student.getId().equals("1"));
+        missing.await().assertComplete().assertNoValues();
+        verify(studentRepository, times(1)).findAllById(anyIterable());
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.school.service;
+
+import com.example.school.model.Student;
+import com.example.school.model.StudentResponse;
+import com.example.school.service.impl.StudentNameIndex;
+import com.example.school.util.CursorPage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StudentNameIndexTest {
+
+    private StudentNameIndex studentNameIndex;
+
+    @Before
+    public void setUp() {
+        List<StudentResponse> students = new ArrayList<>();
+        students.add(new StudentResponse("3", "Maria Lopez", true));
+        students.add(new StudentResponse("1", "David Marquez", true));
+        students.add(new StudentResponse("2", "Marcos Diaz", true));
+        students.add(new StudentResponse("4", "Mario Ruiz", false));
+
+        studentNameIndex = new StudentNameIndex(true);
+        studentNameIndex.load(students);
+    }
+
+    @Test
+    public void shouldMatchAnyNameTokenByPrefixInIdOrder() {
+        CursorPage<StudentResponse> page = studentNameIndex.search("MAR", null, 10);
+
+        assertEquals(3, page.getItems().size());
+        assertEquals("1", page.getItems().get(0).getId());
+        assertEquals("3", page.getItems().get(2).getId());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void shouldRequireEveryQueryToken() {
+        CursorPage<StudentResponse> page = studentNameIndex.search("mar lo", null, 10);
+
+        assertEquals(1, page.getItems().size());
+        assertEquals("3", page.getItems().get(0).getId());
+    }
+
+    @Test
+    public void shouldPageWithCursor() {
+        CursorPage<StudentResponse> first = studentNameIndex.search("mar", null, 2);
+        CursorPage<StudentResponse> second = studentNameIndex.search("mar", first.getNextCursor(), 2);
+
+        assertEquals("2", first.getNextCursor());
+        assertEquals(1, second.getItems().size());
+        assertEquals("3", second.getItems().get(0).getId());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    public void shouldListStudentWithSeveralMatchingTokensOnce() {
+        studentNameIndex.apply(new Student("5", "Mark Marsh", true));
+
+        CursorPage<StudentResponse> page = studentNameIndex.search("mar", "3", 10);
+
+        assertEquals(1, page.getItems().size());
+        assertEquals("5", page.getItems().get(0).getId());
+    }
+
+    @Test
+    public void shouldIgnoreRenameArrivingOutOfOrder() {
+        studentNameIndex.apply(new Student("1", "Tom Baker", true, 0L, 2L));
+        studentNameIndex.apply(new Student("1", "David Marquez", true, 0L, 1L));
+
+        assertEquals(1, studentNameIndex.search("bak", null, 10).getItems().size());
+        assertTrue(studentNameIndex.search("marq", null, 10).getItems().isEmpty());
+    }
+
+    @Test
+    public void shouldFollowRenamesAndDeactivations() {
+        studentNameIndex.apply(new Student("1", "Tom Baker", true));
+        studentNameIndex.apply(new Student("2", "Marcos Diaz", false));
+        studentNameIndex.remove("3", 1L);
+
+        assertTrue(studentNameIndex.search("mar", null, 10).getItems().isEmpty());
+        assertEquals(1, studentNameIndex.search("bak", null, 10).getItems().size());
+    }
+}
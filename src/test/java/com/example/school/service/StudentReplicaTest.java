@@ -0,0 +1,189 @@
+package com.example.school.service;
+
+import com.example.school.config.ReadWriteRoutingDataSource;
+import com.example.school.model.StudentChange;
+import com.example.school.service.impl.StudentChangeSequence;
+import com.example.school.service.impl.StudentListVersion;
+import com.example.school.service.impl.StudentReplica;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StudentReplicaTest {
+
+    private final StudentChangeSequence studentChangeSequence = new StudentChangeSequence();
+
+    private final StudentListVersion studentListVersion = new StudentListVersion();
+
+    private ReadWriteRoutingDataSource routingDataSource;
+
+    private DataSource dataSource;
+
+    private DataSourceTransactionManager transactionManager;
+
+    private JdbcTemplate primary;
+
+    private JdbcTemplate replica;
+
+    private StudentReplica studentReplica;
+
+    @Before
+    public void setUp() {
+        routingDataSource = new ReadWriteRoutingDataSource(h2(), h2());
+        dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        transactionManager = new DataSourceTransactionManager(dataSource);
+        primary = new JdbcTemplate(routingDataSource.getPrimary());
+        replica = new JdbcTemplate(routingDataSource.getReplica());
+        primary.execute("create table students (id varchar(255) not null, active boolean not null,"
+                + " change_seq bigint not null, name varchar(255), updated_at timestamp, version bigint not null,"
+                + " primary key (id))");
+        primary.execute("create table students_archive (id varchar(255) not null, active boolean not null,"
+                + " change_seq bigint not null, name varchar(255), version bigint not null, primary key (id))");
+        primary.execute("create table student_tombstones (id varchar(255) not null, change_seq bigint not null,"
+                + " primary key (id))");
+        primary.update("insert into students values ('0', true, 0, 'Tom', current_timestamp(), 0)");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (studentReplica != null)
+            studentReplica.shutdown();
+    }
+
+    @Test
+    public void shouldCopySchemaAndRowsOnStart() {
+        start(60000);
+
+        assertEquals(1, count(replica));
+        assertEquals(0L, studentReplica.replicatedUpTo());
+    }
+
+    @Test
+    public void shouldRouteReadOnlyTransactionsToReplica() {
+        start(60000);
+        write("1", 1L);
+
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        JdbcTemplate routed = new JdbcTemplate(dataSource);
+        assertEquals(1, (int) readOnly.execute(status -> count(routed)));
+        assertEquals(2, (int) new TransactionTemplate(transactionManager).execute(status -> count(routed)));
+        assertEquals(2, (int) studentReplica.onPrimary(() -> readOnly.execute(status -> count(routed))));
+    }
+
+    @Test
+    public void shouldHoldBackChangesWithinLag() {
+        start(60000);
+        write("1", 1L);
+
+        studentReplica.replicate();
+
+        assertEquals(1, count(replica));
+        assertEquals(0L, studentReplica.replicatedUpTo());
+        assertTrue(studentReplica.isBehind("1"));
+    }
+
+    @Test
+    public void shouldApplyCommittedChangesAndTombstones() {
+        start(0);
+        write("1", 1L);
+        String listVersion = studentListVersion.current();
+
+        studentReplica.replicate();
+
+        assertEquals(2, count(replica));
+        assertEquals(1L, studentReplica.replicatedUpTo());
+        assertFalse(studentReplica.isBehind("1"));
+        assertNotEquals(listVersion, studentListVersion.current());
+
+        long changeSeq = studentChangeSequence.begin();
+        primary.update("delete from students where id = '1'");
+        primary.update("insert into student_tombstones values ('1', ?)", changeSeq);
+        studentChangeSequence.end(changeSeq);
+        studentReplica.replicate();
+
+        assertEquals(1, count(replica));
+        assertEquals(1, (int) replica.queryForObject("select count(*) from student_tombstones", Integer.class));
+    }
+
+    @Test
+    public void shouldPruneTombstonesUpToTheirChangeSeq() {
+        start(0);
+        primary.update("insert into student_tombstones values ('1', 1)");
+        primary.update("insert into student_tombstones values ('2', 3)");
+        studentChangeSequence.end(studentChangeSequence.begin());
+        studentChangeSequence.end(studentChangeSequence.begin());
+        studentChangeSequence.end(studentChangeSequence.begin());
+        studentReplica.replicate();
+
+        // '2' was deleted again after the pruned tombstone was read
+        studentReplica.pruneTombstones(Arrays.asList(new StudentChange("1", 1L), new StudentChange("2", 2L)));
+
+        assertEquals(Collections.singletonList("2"),
+                replica.queryForList("select id from student_tombstones", String.class));
+    }
+
+    @Test
+    public void shouldMoveArchivedAndRestoredRows() {
+        start(0);
+
+        long changeSeq = studentChangeSequence.begin();
+        primary.update("insert into students_archive select id, active, ?, name, version from students where id = '0'",
+                changeSeq);
+        primary.update("delete from students where id = '0'");
+        studentChangeSequence.end(changeSeq);
+        studentReplica.replicate();
+
+        assertEquals(0, count(replica));
+        assertEquals(1, (int) replica.queryForObject("select count(*) from students_archive", Integer.class));
+
+        changeSeq = studentChangeSequence.begin();
+        primary.update("delete from students_archive where id = '0'");
+        primary.update("insert into students values ('0', true, ?, 'Tom', current_timestamp(), 1)", changeSeq);
+        studentChangeSequence.end(changeSeq);
+        studentReplica.replicate();
+
+        assertEquals(1, count(replica));
+        assertEquals(0, (int) replica.queryForObject("select count(*) from students_archive", Integer.class));
+    }
+
+    private void start(long lagMillis) {
+        studentReplica = new StudentReplica(routingDataSource, transactionManager, studentChangeSequence,
+                studentListVersion, true, lagMillis, 60000);
+        studentReplica.start();
+    }
+
+    private void write(String id, long expectedChangeSeq) {
+        long changeSeq = studentChangeSequence.begin();
+        assertEquals(expectedChangeSeq, changeSeq);
+        primary.update("insert into students values (?, true, ?, 'David', current_timestamp(), 0)", id, changeSeq);
+        studentChangeSequence.end(changeSeq);
+        studentReplica.written(id, changeSeq);
+    }
+
+    private static int count(JdbcTemplate jdbcTemplate) {
+        return jdbcTemplate.queryForObject("select count(*) from students", Integer.class);
+    }
+
+    private static DataSource h2() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        return dataSource;
+    }
+}
@@ -1,23 +1,72 @@
 package com.example.school.service;
 
+import com.example.school.exception.BadRequestException;
+import com.example.school.exception.StudentAlreadyExistsException;
+import com.example.school.exception.StudentNotFoundException;
+import com.example.school.model.ArchivedStudent;
 import com.example.school.model.Student;
+import com.example.school.model.StudentBatchResult;
+import com.example.school.model.StudentChange;
+import com.example.school.model.StudentEvent;
+import com.example.school.model.StudentResponse;
+import com.example.school.repository.ArchivedStudentRepository;
 import com.example.school.repository.StudentRepository;
+import com.example.school.repository.StudentTombstoneRepository;
+import com.example.school.service.impl.ActiveStudentIndex;
+import com.example.school.service.impl.StudentArchiver;
+import com.example.school.service.impl.StudentChangeFeed;
+import com.example.school.service.impl.StudentChangeSequence;
+import com.example.school.service.impl.StudentDetailCache;
+import com.example.school.service.impl.StudentIdFilter;
+import com.example.school.service.impl.StudentListVersion;
+import com.example.school.service.impl.StudentLookupBatcher;
+import com.example.school.service.impl.StudentNameIndex;
+import com.example.school.service.impl.StudentReplica;
 import com.example.school.service.impl.StudentServiceImpl;
+import com.example.school.service.impl.StudentShards;
+import com.example.school.service.impl.StudentWriteBuffer;
+import com.example.school.util.CursorPage;
 import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subscribers.TestSubscriber;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityNotFoundException;
+import javax.persistence.EntityTransaction;
+import javax.persistence.TypedQuery;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -27,6 +76,37 @@ public class StudentServiceImplTest {
 
     @Mock
     private StudentRepository studentRepository;
+    @Mock
+    private EntityManagerFactory entityManagerFactory;
+    @Mock
+    private StudentLookupBatcher studentLookupBatcher;
+    @Mock
+    private StudentTombstoneRepository studentTombstoneRepository;
+    @Mock
+    private StudentWriteBuffer studentWriteBuffer;
+    @Mock
+    private ArchivedStudentRepository archivedStudentRepository;
+    @Mock
+    private StudentArchiver studentArchiver;
+    @Spy
+    private StudentDetailCache studentDetailCache = new StudentDetailCache(100, 60);
+    @Spy
+    private ActiveStudentIndex activeStudentIndex = new ActiveStudentIndex(false);
+    @Spy
+    private StudentListVersion studentListVersion = new StudentListVersion();
+    @Spy
+    private StudentIdFilter studentIdFilter = new StudentIdFilter(false, 100, 0.01);
+    @Spy
+    private StudentNameIndex studentNameIndex = new StudentNameIndex(true);
+    @Spy
+    private StudentChangeSequence studentChangeSequence = new StudentChangeSequence();
+    @Spy
+    private StudentChangeFeed studentChangeFeed = new StudentChangeFeed(16, 16, 4);
+    @Spy
+    private StudentReplica studentReplica =
+            new StudentReplica(null, null, new StudentChangeSequence(), new StudentListVersion(), false, 0, 0);
+    @Spy
+    private StudentShards studentShards = new StudentShards(null, false, 1);
     @InjectMocks
     private StudentServiceImpl studentService;
 
@@ -37,8 +117,7 @@ public class StudentServiceImplTest {
 
     @Test
     public void shouldNewStudent() {
-        when(studentRepository.save(any(Student.class)))
-                .thenReturn(new Student("1", "David", true));
+        doNothing().when(studentRepository).insert(any(Student.class));
 
         studentService.newStudent(new Student("1", "David", true))
                 .test()
@@ -46,58 +125,149 @@ public class StudentServiceImplTest {
                 .assertNoErrors()
                 .assertValue("1");
 
-        verify(studentRepository, times(1)).save(any(Student.class));
+        verify(studentRepository, times(1)).insert(any(Student.class));
+        verify(studentRepository, never()).findById(anyString());
+        verify(studentRepository, never()).save(any(Student.class));
+    }
+
+    @Test
+    public void shouldFailToNewDuplicatedStudent() {
+        doThrow(new DataIntegrityViolationException("duplicate"))
+                .when(studentRepository).insert(any(Student.class));
+
+        studentService.newStudent(new Student("1", "David", true))
+                .test()
+                .assertNotComplete()
+                .assertError(BadRequestException.class);
+
+        verify(studentRepository, times(1)).insert(any(Student.class));
+    }
+
+    @Test
+    public void shouldNotCollectSuppressedExceptionsOnSharedInstance() {
+        StudentAlreadyExistsException.INSTANCE.addSuppressed(new IllegalStateException("cleanup failed"));
+
+        assertEquals(0, StudentAlreadyExistsException.INSTANCE.getSuppressed().length);
+        assertEquals(0, StudentAlreadyExistsException.INSTANCE.getStackTrace().length);
+    }
+
+    @Test
+    public void shouldNewStudentsReportingConflicts() {
+        when(studentRepository.findExistingIds(anyCollection()))
+                .thenReturn(Collections.singletonList("2"));
+
+        TestObserver<StudentBatchResult> testObserver = studentService.newStudents(Arrays.asList(
+                new Student("1", "David", true),
+                new Student("2", "Marcos", true),
+                new Student("1", "David", true),
+                new Student(null, "Maria", true)))
+                .test()
+                .assertComplete()
+                .assertNoErrors();
+
+        testObserver.assertValue(result -> result.getCreated() == 1 &&
+                result.getRejected() == 1 &&
+                result.getConflicts().equals(Arrays.asList("1", "2")));
+
+        verify(studentRepository, times(1)).findExistingIds(Arrays.asList("1", "2"));
+        verify(studentRepository, times(1)).insertAll(anyList());
+    }
+
+    @Test
+    public void shouldIsolateConcurrentConflictsInBatch() {
+        when(studentRepository.findExistingIds(anyCollection()))
+                .thenReturn(Collections.emptyList());
+        Student student1 = new Student("1", "David", true);
+        Student student2 = new Student("2", "Marcos", true);
+        doThrow(new DataIntegrityViolationException("duplicate"))
+                .when(studentRepository).insertAll(argThat(students -> students.size() == 2));
+        doThrow(new DataIntegrityViolationException("duplicate"))
+                .when(studentRepository).insert(student2);
+
+        TestObserver<StudentBatchResult> testObserver = studentService.newStudents(Arrays.asList(student1, student2))
+                .test()
+                .assertComplete()
+                .assertNoErrors();
+
+        testObserver.assertValue(result -> result.getCreated() == 1 &&
+                result.getConflicts().equals(Collections.singletonList("2")));
     }
 
      @Test
     public void shouldUpdateStudent() {
-        when(studentRepository.findById(anyString()))
-                .thenReturn(Optional.of(new Student("1", "David", true)));
-        when(studentRepository.save(any(Student.class)))
-                .thenReturn(new Student("1", "David", true));
+        when(studentRepository.updateNameAndActive(anyString(), anyString(), anyBoolean(), anyLong()))
+                .thenReturn(1);
 
         studentService.updateStudent(new Student("1", "David", true))
                 .test()
                 .assertComplete()
                 .assertNoErrors();
 
-        verify(studentRepository, times(1)).findById(anyString());
-        verify(studentRepository, times(1)).save(any(Student.class));
+        verify(studentRepository, times(1)).updateNameAndActive(eq("1"), eq("David"), eq(true), anyLong());
+        verify(studentRepository, never()).findById(anyString());
+        verify(studentRepository, never()).save(any(Student.class));
+    }
+
+    @Test
+    public void shouldChangeStudentsVersionOnlyAfterWrites() {
+        when(studentRepository.updateNameAndActive(anyString(), anyString(), anyBoolean(), anyLong()))
+                .thenReturn(1)
+                .thenReturn(0);
+
+        String version = studentService.getStudentsVersion();
+        studentService.updateStudent(new Student("1", "David", true)).test().assertComplete();
+        String updatedVersion = studentService.getStudentsVersion();
+        studentService.updateStudent(new Student("2", "Marcos", true)).test().assertError(EntityNotFoundException.class);
+
+        assertNotEquals(version, updatedVersion);
+        assertEquals(updatedVersion, studentService.getStudentsVersion());
     }
 
     @Test
     public void shouldFailUpdateStudent() {
-        when(studentRepository.findById(anyString()))
-                .thenReturn(Optional.empty());
+        when(studentRepository.updateNameAndActive(anyString(), anyString(), anyBoolean(), anyLong()))
+                .thenReturn(0);
 
         studentService.updateStudent(new Student("1", "David", true))
                 .test()
                 .assertNotComplete()
                 .assertError(EntityNotFoundException.class);
 
-        verify(studentRepository, times(1)).findById(anyString());
-        verify(studentRepository, never()).save(any(Student.class));
+        verify(studentRepository, times(1)).updateNameAndActive(eq("1"), eq("David"), eq(true), anyLong());
+    }
+
+    @Test
+    public void shouldRestoreArchivedStudentOnUpdate() {
+        when(studentRepository.updateNameAndActive(anyString(), anyString(), anyBoolean(), anyLong()))
+                .thenReturn(0);
+        when(studentArchiver.restore(anyString(), anyString(), anyBoolean(), anyLong()))
+                .thenReturn(1);
+
+        studentService.updateStudent(new Student("1", "David", true))
+                .test()
+                .assertComplete()
+                .assertNoErrors();
+
+        verify(studentArchiver, times(1)).restore(eq("1"), eq("David"), eq(true), anyLong());
     }
 
     @Test
     public void shouldGetAllStudents() {
-        Student student1 = new Student("1", "David", true);
-        Student student2 = new Student("2", "Marcos", true);
-        Student student3 = new Student("3", "Maria", true);
-        Student student4 = new Student("4", "Claudia", false);
-        Student student5 = new Student("5", "Carolina", true);
+        StudentResponse student1 = new StudentResponse("1", "David", true);
+        StudentResponse student2 = new StudentResponse("2", "Marcos", true);
+        StudentResponse student3 = new StudentResponse("3", "Maria", true);
+        StudentResponse student5 = new StudentResponse("5", "Carolina", true);
 
-        List<Student> students = new ArrayList<>();
+        List<StudentResponse> students = new ArrayList<>();
         students.add(student1);
         students.add(student2);
         students.add(student3);
-        students.add(student4);
         students.add(student5);
 
-        when(studentRepository.findAll())
+        when(studentRepository.findActiveStudents())
                 .thenReturn(students);
 
-        TestObserver<List<Student>> testObserver =
+        TestObserver<List<StudentResponse>> testObserver =
                 studentService.getAllStudents().test().assertComplete().assertNoErrors();
 
         testObserver.assertValue(studentResponse -> studentResponse.get(0).getId().equals("1") &&
@@ -105,7 +275,227 @@ public class StudentServiceImplTest {
                 studentResponse.get(2).getId().equals("3") &&
                 studentResponse.get(3).getId().equals("5"));
 
-        verify(studentRepository, times(1)).findAll();
+        verify(studentRepository, times(1)).findActiveStudents();
+    }
+
+    @Test
+    public void shouldGetFirstPageOfActiveStudents() {
+        List<StudentResponse> students = new ArrayList<>();
+        students.add(new StudentResponse("1", "David", true));
+        students.add(new StudentResponse("2", "Marcos", true));
+        students.add(new StudentResponse("3", "Maria", true));
+
+        when(studentRepository.findActiveStudents(any(Pageable.class)))
+                .thenReturn(students);
+
+        TestObserver<CursorPage<StudentResponse>> testObserver =
+                studentService.getActiveStudents(null, 2).test().assertComplete().assertNoErrors();
+
+        testObserver.assertValue(page -> page.getItems().size() == 2 &&
+                page.getItems().get(1).getId().equals("2") &&
+                page.getNextCursor().equals("2"));
+
+        verify(studentRepository, times(1)).findActiveStudents(PageRequest.of(0, 3));
+    }
+
+    @Test
+    public void shouldGetLastPageOfActiveStudents() {
+        List<StudentResponse> students = new ArrayList<>();
+        students.add(new StudentResponse("5", "Carolina", true));
+
+        when(studentRepository.findActiveStudentsAfter(eq("3"), any(Pageable.class)))
+                .thenReturn(students);
+
+        TestObserver<CursorPage<StudentResponse>> testObserver =
+                studentService.getActiveStudents("3", 2).test().assertComplete().assertNoErrors();
+
+        testObserver.assertValue(page -> page.getItems().size() == 1 && page.getNextCursor() == null);
+
+        verify(studentRepository, times(1)).findActiveStudentsAfter("3", PageRequest.of(0, 3));
+    }
+
+    @Test
+    public void shouldSearchRenamedStudentByItsNewName() {
+        when(studentRepository.updateNameAndActive(anyString(), anyString(), anyBoolean(), anyLong()))
+                .thenReturn(1);
+
+        studentService.newStudent(new Student("1", "David Smith", true)).test().assertComplete();
+        studentService.updateStudent(new Student("1", "Tom Smith", true)).test().assertComplete();
+
+        studentService.searchStudents("dav", null, 10)
+                .test()
+                .assertValue(page -> page.getItems().isEmpty());
+        studentService.searchStudents("smi to", null, 10)
+                .test()
+                .assertValue(page -> page.getItems().size() == 1 && page.getItems().get(0).getName().equals("Tom Smith"));
+        verify(studentRepository, never()).searchActiveStudents(anyString(), any(Pageable.class));
+    }
+
+    @Test
+    public void shouldSearchTheSameWithAndWithoutTheNameIndex() {
+        List<StudentResponse> students = Arrays.asList(
+                new StudentResponse("1", "Anne-Marie Dupont", true),
+                new StudentResponse("2", "Guadalope Mar", true),
+                new StudentResponse("3", "Maria Lopez", true),
+                new StudentResponse("4", "Rosa Marquez", true),
+                new StudentResponse("5", "Lopez Maria", true));
+        when(studentRepository.findActiveStudents(any(Pageable.class))).thenReturn(students);
+        when(studentRepository.searchActiveStudents(anyString(), any(Pageable.class))).thenAnswer(invocation ->
+                like(students, invocation.getArgument(0), null, invocation.getArgument(1)));
+        when(studentRepository.searchActiveStudentsAfter(anyString(), anyString(), any(Pageable.class)))
+                .thenAnswer(invocation -> like(students, invocation.getArgument(0), invocation.getArgument(1),
+                        invocation.getArgument(2)));
+        studentService.loadIndexes();
+
+        for (String query : Arrays.asList("lope mar", "mar", "MARIE dup", "uez")) {
+            List<String> indexed = searchAllPages(query);
+            doReturn(false).when(studentNameIndex).isEnabled();
+            List<String> scanned = searchAllPages(query);
+            doReturn(true).when(studentNameIndex).isEnabled();
+
+            assertEquals(query, indexed, scanned);
+        }
+        verify(studentRepository, times(4)).searchActiveStudents(anyString(), any(Pageable.class));
+        assertEquals(Arrays.asList("3", "5"), searchAllPages("lope mar"));
+        assertEquals(Arrays.asList("1"), searchAllPages("MARIE dup"));
+        assertEquals(Collections.emptyList(), searchAllPages("uez"));
+    }
+
+    private List<String> searchAllPages(String query) {
+        List<String> ids = new ArrayList<>();
+        String after = null;
+        do {
+            CursorPage<StudentResponse> page = studentService.searchStudents(query, after, 1).blockingGet();
+            for (StudentResponse student : page.getItems())
+                ids.add(student.getId());
+            after = page.getNextCursor();
+        } while (after != null);
+        return ids;
+    }
+
+    /**
+     * Answers a {@code lower(name) like '%token%'} query over the given rows.
+     */
+    private static List<StudentResponse> like(List<StudentResponse> rows, String namePattern, String after,
+                                              Pageable pageable) {
+        String token = namePattern.substring(1, namePattern.length() - 1);
+        List<StudentResponse> found = new ArrayList<>();
+        for (StudentResponse row : rows) {
+            if (found.size() < pageable.getPageSize() && (after == null || row.getId().compareTo(after) > 0)
+                    && row.getName().toLowerCase().contains(token))
+                found.add(row);
+        }
+        return found;
+    }
+
+    @Test
+    public void shouldGetChangesUpToTheCommittedWatermark() {
+        studentService.newStudent(new Student("1", "David", true)).test().assertComplete();
+        long inFlight = studentChangeSequence.begin();
+        studentService.newStudent(new Student("2", "Tom", true)).test().assertComplete();
+        when(studentRepository.findChanges(eq(0L), eq(1L), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(new StudentChange("1", "David", true, 1L)));
+        when(studentTombstoneRepository.findChanges(eq(0L), eq(1L), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+
+        studentService.getChanges(0L, 10)
+                .test()
+                .assertValue(page -> page.getItems().size() == 1 && page.getNextCursor().equals("1"));
+
+        studentChangeSequence.end(inFlight);
+        assertEquals(3L, studentChangeSequence.committed());
+    }
+
+    @Test
+    public void shouldMergeDeletionsIntoChangesBySequence() {
+        studentChangeSequence.start(10L);
+        when(studentRepository.findChanges(eq(4L), eq(10L), any(Pageable.class)))
+                .thenReturn(Arrays.asList(new StudentChange("1", "David", true, 5L),
+                        new StudentChange("3", "Tom", false, 7L)));
+        when(studentTombstoneRepository.findChanges(eq(4L), eq(10L), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(new StudentChange("2", 6L)));
+
+        studentService.getChanges(4L, 2)
+                .test()
+                .assertValue(page -> page.getItems().size() == 2
+                        && page.getItems().get(1).isDeleted()
+                        && page.getNextCursor().equals("6"));
+    }
+
+    @Test
+    public void shouldNotReadChangesPastTheReplica() {
+        studentChangeSequence.start(10L);
+        doReturn(6L).when(studentReplica).replicatedUpTo();
+        when(studentRepository.findChanges(eq(4L), eq(6L), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(new StudentChange("1", "David", true, 5L)));
+        when(studentTombstoneRepository.findChanges(eq(4L), eq(6L), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+
+        studentService.getChanges(4L, 10)
+                .test()
+                .assertValue(page -> page.getItems().size() == 1 && page.getNextCursor().equals("6"));
+    }
+
+    @Test
+    public void shouldReadUnreplicatedStudentFromPrimary() {
+        doReturn(true).when(studentReplica).isBehind("1");
+        when(studentLookupBatcher.isEnabled()).thenReturn(true);
+        when(studentRepository.findById("1")).thenReturn(Optional.of(new Student("1", "David", true)));
+
+        studentService.getStudentDetail("1").test().assertValue(student -> student.getId().equals("1"));
+
+        verify(studentReplica, times(1)).onPrimary(any());
+        verify(studentLookupBatcher, never()).load(anyString());
+    }
+
+    @Test
+    public void shouldStreamWritesAfterTheyCommit() {
+        when(studentRepository.deleteWithTombstone(anyString(), anyLong()))
+                .thenReturn(1)
+                .thenReturn(0);
+        TestSubscriber<StudentEvent> events = studentService.streamChanges(null).test();
+
+        studentService.newStudent(new Student("1", "David", true)).test().assertComplete();
+        studentService.deleteStudent("1").test().assertComplete();
+        studentService.deleteStudent("1").test().assertError(EntityNotFoundException.class);
+
+        events.awaitCount(2);
+        events.assertValueCount(2);
+        events.assertValueAt(0, event -> event.getType() == StudentEvent.Type.CREATED);
+        events.assertValueAt(1, event -> event.getType() == StudentEvent.Type.DELETED
+                && event.getChange().getChangeSeq() == 2L);
+    }
+
+    @Test
+    public void shouldStreamImportLargerThanConsumerBufferAsOneEvent() {
+        when(studentRepository.findExistingIds(anyCollection()))
+                .thenReturn(Collections.emptyList());
+        List<Student> students = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            students.add(new Student(String.valueOf(i), "David", true));
+        TestSubscriber<StudentEvent> events = studentService.streamChanges(null).test();
+
+        studentService.newStudents(students).test().assertValue(result -> result.getCreated() == 1000);
+
+        events.awaitCount(1);
+        events.assertNoErrors();
+        events.assertValue(event -> event.getType() == StudentEvent.Type.IMPORTED && event.getChanges().size() == 1000);
+    }
+
+    @Test
+    public void shouldBufferUpdateAndReadItBack() {
+        Student update = new Student("1", "David", false);
+        when(studentWriteBuffer.isEnabled()).thenReturn(true);
+        when(studentWriteBuffer.hasCapacity()).thenReturn(true);
+        when(studentRepository.existsById("1")).thenReturn(true);
+        when(studentWriteBuffer.getPending("1")).thenReturn(update);
+
+        studentService.updateStudent(update).test().assertComplete();
+        studentService.getStudentDetail("1").test().assertValue(student -> !student.isActive());
+
+        verify(studentWriteBuffer, times(1)).enqueue(update);
+        verify(studentRepository, never()).updateNameAndActive(anyString(), anyString(), anyBoolean(), anyLong());
+        verify(studentRepository, never()).findById(anyString());
     }
 
     @Test
@@ -122,6 +512,105 @@ public class StudentServiceImplTest {
         verify(studentRepository, times(1)).findById(anyString());
     }
 
+    @Test
+    public void shouldGetAStudentFromCache() {
+        when(studentRepository.findById(anyString()))
+                .thenReturn(Optional.of(new Student("1", "David", true)));
+
+        studentService.getStudentDetail("1").test().assertValue(studentResponse -> studentResponse.getId().equals("1"));
+        studentService.getStudentDetail("1").test().assertValue(studentResponse -> studentResponse.getId().equals("1"));
+
+        verify(studentRepository, times(1)).findById(anyString());
+    }
+
+    @Test
+    public void shouldReloadAStudentAfterUpdate() {
+        when(studentRepository.findById(anyString()))
+                .thenReturn(Optional.of(new Student("1", "David", true)))
+                .thenReturn(Optional.of(new Student("1", "David", false)));
+        when(studentRepository.updateNameAndActive(anyString(), anyString(), anyBoolean(), anyLong()))
+                .thenReturn(1);
+
+        studentService.getStudentDetail("1").test().assertValue(Student::isActive);
+        studentService.updateStudent(new Student("1", "David", false)).test().assertComplete();
+        studentService.getStudentDetail("1").test().assertValue(studentResponse -> !studentResponse.isActive());
+
+        verify(studentRepository, times(2)).findById(anyString());
+    }
+
+    @Test
+    public void shouldShareInFlightLookupOfAStudent() throws InterruptedException {
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        CountDownLatch releaseLookup = new CountDownLatch(1);
+        when(studentRepository.findById(anyString())).thenAnswer(invocation -> {
+            lookupStarted.countDown();
+            releaseLookup.await(5, TimeUnit.SECONDS);
+            return Optional.of(new Student("1", "David", true));
+        });
+
+        TestObserver<Student> leader = studentService.getStudentDetail("1").subscribeOn(Schedulers.io()).test();
+        lookupStarted.await(5, TimeUnit.SECONDS);
+        TestObserver<Student> follower = studentService.getStudentDetail("1").test();
+        releaseLookup.countDown();
+
+        leader.await().assertValue(studentResponse -> studentResponse.getId().equals("1"));
+        follower.await().assertValue(studentResponse -> studentResponse.getId().equals("1"));
+        verify(studentRepository, times(1)).findById("1");
+    }
+
+    @Test
+    public void shouldGetStudentsWithOneQueryForCacheMisses() {
+        when(studentRepository.findById("1"))
+                .thenReturn(Optional.of(new Student("1", "David", true)));
+        when(studentRepository.findAllById(Arrays.asList("3", "2")))
+                .thenReturn(Collections.singletonList(new Student("3", "Tom", false)));
+
+        studentService.getStudentDetail("1").test().assertComplete();
+        studentService.getStudents(Arrays.asList("3", "1", "2", "3"))
+                .test()
+                .assertValue(students -> students.size() == 2
+                        && students.get(0).getId().equals("3")
+                        && students.get(1).getId().equals("1"));
+
+        verify(studentRepository, times(1)).findAllById(Arrays.asList("3", "2"));
+        verify(studentRepository, times(1)).findById(anyString());
+    }
+
+    @Test
+    public void shouldNotQueryStudentMissingFromIdFilter() {
+        doReturn(false).when(studentIdFilter).mightContain("1");
+
+        studentService.getStudentDetail("1")
+                .test()
+                .assertError(StudentNotFoundException.class);
+        studentService.deleteStudent("1")
+                .test()
+                .assertError(StudentNotFoundException.class);
+
+        verify(studentRepository, never()).findById(anyString());
+        verify(studentRepository, never()).deleteWithTombstone(anyString(), anyLong());
+    }
+
+    @Test
+    public void shouldGetArchivedStudentOnMiss() {
+        when(studentArchiver.isEnabled()).thenReturn(true);
+        when(studentRepository.findById(anyString()))
+                .thenReturn(Optional.empty());
+        when(archivedStudentRepository.findById("1"))
+                .thenReturn(Optional.of(new ArchivedStudent("1", "David", false, 3L, 7L)));
+        when(archivedStudentRepository.findAllById(Collections.singletonList("2")))
+                .thenReturn(Collections.singletonList(new ArchivedStudent("2", "Tom", false, 0L, 8L)));
+
+        studentService.getStudentDetail("1")
+                .test()
+                .assertValue(student -> !student.isActive() && student.getVersion() == 3L);
+        studentService.getStudents(Arrays.asList("1", "2"))
+                .test()
+                .assertValue(students -> students.size() == 2 && students.get(1).getId().equals("2"));
+
+        verify(archivedStudentRepository, times(1)).findById("1");
+    }
+
     @Test
     public void notShouldGetAStudent() {
         when(studentRepository.findById(anyString()))
@@ -135,32 +624,57 @@ public class StudentServiceImplTest {
         verify(studentRepository, times(1)).findById(anyString());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldExportAndDetachStudents() {
+        EntityManager entityManager = mock(EntityManager.class);
+        EntityTransaction transaction = mock(EntityTransaction.class);
+        TypedQuery<Student> query = mock(TypedQuery.class);
+
+        when(entityManagerFactory.createEntityManager()).thenReturn(entityManager);
+        when(entityManager.getTransaction()).thenReturn(transaction);
+        when(transaction.isActive()).thenReturn(true);
+        when(entityManager.createQuery(anyString(), eq(Student.class))).thenReturn(query);
+        when(query.setHint(anyString(), any())).thenReturn(query);
+        when(query.getResultStream())
+                .thenReturn(Stream.of(new Student("1", "David", true), new Student("4", "Claudia", false)));
+
+        studentService.exportStudents()
+                .test()
+                .assertComplete()
+                .assertNoErrors()
+                .assertValueCount(2);
+
+        verify(entityManager, times(2)).detach(any(Student.class));
+        verify(transaction, times(1)).rollback();
+        verify(entityManager, times(1)).close();
+    }
+
     @Test
     public void shouldDeleteStudent() {
-        when(studentRepository.findById(anyString()))
-                .thenReturn(Optional.of(new Student("1", "David", true)));
-        doNothing().when(studentRepository).delete(any(Student.class));
+        when(studentRepository.deleteWithTombstone(anyString(), anyLong()))
+                .thenReturn(1);
 
         studentService.deleteStudent("1")
                 .test()
                 .assertComplete()
                 .assertNoErrors();
 
-       verify(studentRepository, times(1)).findById(anyString());
-       verify(studentRepository, times(1)).delete(any(Student.class));
+       verify(studentRepository, times(1)).deleteWithTombstone(eq("1"), anyLong());
+       verify(studentRepository, never()).findById(anyString());
+       verify(studentRepository, never()).delete(any(Student.class));
     }
 
     @Test
     public void notShouldDeleteStudent() {
-        when(studentRepository.findById(anyString()))
-                .thenReturn(Optional.empty());
+        when(studentRepository.deleteWithTombstone(anyString(), anyLong()))
+                .thenReturn(0);
 
         studentService.deleteStudent("1")
                 .test()
                 .assertNotComplete()
                 .assertError(EntityNotFoundException.class);
 
-        verify(studentRepository, times(1)).findById(anyString());
-        verify(studentRepository, never()).delete(any(Student.class));
+        verify(studentRepository, times(1)).deleteWithTombstone(eq("1"), anyLong());
     }
-}
\ No newline at end of file
+}
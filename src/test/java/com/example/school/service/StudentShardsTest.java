@@ -0,0 +1,103 @@
+package com.example.school.service;
+
+import com.example.school.config.ShardRoutingDataSource;
+import com.example.school.service.impl.StudentShards;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class StudentShardsTest {
+
+    private static final int SHARD_COUNT = 3;
+
+    private ShardRoutingDataSource shardRoutingDataSource;
+
+    private JdbcTemplate routed;
+
+    private StudentShards studentShards;
+
+    @Before
+    public void setUp() {
+        List<DataSource> shards = new ArrayList<>();
+        for (int shard = 0; shard < SHARD_COUNT; shard++)
+            shards.add(h2());
+        shardRoutingDataSource = new ShardRoutingDataSource(shards);
+        routed = new JdbcTemplate(shardRoutingDataSource);
+        // unrouted work lands on shard 0, like the JPA schema
+        routed.execute("create table students (id varchar(255) not null, name varchar(255), primary key (id))");
+        studentShards = new StudentShards(shardRoutingDataSource, true, 4);
+        studentShards.start();
+        for (int i = 0; i < 20; i++) {
+            String id = String.format("%02d", i);
+            studentShards.runOnShardOf(id, () -> routed.update("insert into students values (?, 'David')", id));
+        }
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        studentShards.shutdown();
+    }
+
+    @Test
+    public void shouldStoreEachStudentOnItsOwningShardOnly() {
+        int total = 0;
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            List<String> ids = new JdbcTemplate(shardRoutingDataSource.getShards().get(shard))
+                    .queryForList("select id from students", String.class);
+            for (String id : ids)
+                assertEquals(shard, studentShards.shardOf(id));
+            total += ids.size();
+        }
+        assertEquals(20, total);
+        assertEquals(1, (int) studentShards.onShardOf("07",
+                () -> routed.queryForObject("select count(*) from students where id = '07'", Integer.class)));
+    }
+
+    @Test
+    public void shouldMergeListingsFromEveryShardInIdOrder() {
+        List<List<String>> shardPages = studentShards.onEach(
+                () -> routed.queryForList("select id from students where id > '03' order by id limit 5", String.class));
+
+        assertEquals(SHARD_COUNT, shardPages.size());
+        assertEquals(Arrays.asList("04", "05", "06", "07", "08"),
+                StudentShards.merge(shardPages, Comparator.naturalOrder(), 5));
+    }
+
+    @Test
+    public void shouldQueryEachOwningShardForItsIds() {
+        List<String> found = new ArrayList<>(studentShards.onOwners(Arrays.asList("01", "02", "15", "99"),
+                ids -> new JdbcTemplate(shardRoutingDataSource).queryForList(
+                        "select id from students where id in (" + String.join(",", Collections.nCopies(ids.size(), "?"))
+                                + ")", String.class, ids.toArray())));
+        Collections.sort(found);
+
+        assertEquals(Arrays.asList("01", "02", "15"), found);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotSwitchShardsInsideATransaction() {
+        TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(shardRoutingDataSource));
+        studentShards.on(0, () -> transaction.execute(status -> studentShards.on(1, () -> 1)));
+    }
+
+    private static DataSource h2() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        return dataSource;
+    }
+}
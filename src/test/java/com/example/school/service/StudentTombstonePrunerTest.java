@@ -0,0 +1,89 @@
+package com.example.school.service;
+
+import com.example.school.model.StudentChange;
+import com.example.school.repository.StudentTombstoneRepository;
+import com.example.school.service.impl.StudentChangeSequence;
+import com.example.school.service.impl.StudentListVersion;
+import com.example.school.service.impl.StudentReplica;
+import com.example.school.service.impl.StudentShards;
+import com.example.school.service.impl.StudentTombstonePruner;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StudentTombstonePrunerTest {
+
+    private final StudentTombstoneRepository studentTombstoneRepository = mock(StudentTombstoneRepository.class);
+
+    private final StudentChangeSequence studentChangeSequence = new StudentChangeSequence();
+
+    private final StudentTombstonePruner studentTombstonePruner = new StudentTombstonePruner(studentTombstoneRepository,
+            new StudentShards(null, false, 1), studentChangeSequence,
+            new StudentReplica(null, null, studentChangeSequence, new StudentListVersion(), false, 0, 0),
+            true, 3600, 0, 2);
+
+    @After
+    public void tearDown() throws InterruptedException {
+        studentTombstonePruner.shutdown();
+    }
+
+    @Test
+    public void shouldPruneOnlyBehindTheRetentionAndTheCommittedWatermark() {
+        studentChangeSequence.end(studentChangeSequence.begin());
+        long inFlight = studentChangeSequence.begin();
+        studentChangeSequence.end(studentChangeSequence.begin());
+        when(studentTombstoneRepository.findPrunable(any(Instant.class), anyLong(), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(new StudentChange("1", 1L)));
+        when(studentTombstoneRepository.prune(anyCollection(), any(Instant.class), anyLong())).thenReturn(1);
+
+        Instant before = Instant.now();
+        assertEquals(1, studentTombstonePruner.prune());
+        Instant after = Instant.now();
+
+        ArgumentCaptor<Instant> cutoff = ArgumentCaptor.forClass(Instant.class);
+        verify(studentTombstoneRepository).findPrunable(cutoff.capture(), eq(inFlight - 1), any(Pageable.class));
+        assertFalse(cutoff.getValue().isBefore(before.minusSeconds(3600)));
+        assertFalse(cutoff.getValue().isAfter(after.minusSeconds(3600)));
+        verify(studentTombstoneRepository).prune(Collections.singletonList("1"), cutoff.getValue(), inFlight - 1);
+    }
+
+    @Test
+    public void shouldPruneInBatches() {
+        when(studentTombstoneRepository.findPrunable(any(Instant.class), anyLong(), any(Pageable.class)))
+                .thenReturn(Arrays.asList(new StudentChange("1", 1L), new StudentChange("2", 2L)),
+                        Collections.singletonList(new StudentChange("3", 3L)));
+        when(studentTombstoneRepository.prune(anyCollection(), any(Instant.class), anyLong())).thenReturn(2, 1);
+
+        assertEquals(3, studentTombstonePruner.prune());
+
+        verify(studentTombstoneRepository).prune(eq(Arrays.asList("1", "2")), any(Instant.class), anyLong());
+        verify(studentTombstoneRepository).prune(eq(Collections.singletonList("3")), any(Instant.class), anyLong());
+    }
+
+    @Test
+    public void shouldStopWhenNoTombstoneIsDeleted() {
+        when(studentTombstoneRepository.findPrunable(any(Instant.class), anyLong(), any(Pageable.class)))
+                .thenReturn(Arrays.asList(new StudentChange("1", 1L), new StudentChange("2", 2L)));
+        when(studentTombstoneRepository.prune(anyCollection(), any(Instant.class), anyLong())).thenReturn(0);
+
+        assertEquals(0, studentTombstonePruner.prune());
+
+        verify(studentTombstoneRepository, times(1)).prune(anyCollection(), any(Instant.class), anyLong());
+    }
+}
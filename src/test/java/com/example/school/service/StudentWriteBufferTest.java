@@ -0,0 +1,189 @@
+package com.example.school.service;
+
+import com.example.school.model.Student;
+import com.example.school.model.StudentResponse;
+import com.example.school.service.impl.StudentArchiver;
+import com.example.school.service.impl.StudentChangeSequence;
+import com.example.school.service.impl.StudentListVersion;
+import com.example.school.service.impl.StudentShards;
+import com.example.school.service.impl.StudentWriteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StudentWriteBufferTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+    private final StudentChangeSequence studentChangeSequence = new StudentChangeSequence();
+
+    private final StudentArchiver studentArchiver = mock(StudentArchiver.class);
+
+    private final StudentListVersion studentListVersion = new StudentListVersion();
+
+    private final StudentWriteBuffer studentWriteBuffer = new StudentWriteBuffer(jdbcTemplate, studentChangeSequence,
+            new StudentShards(null, false, 1), studentArchiver, studentListVersion, true, 100, 2, 60000);
+
+    @Before
+    public void setUp() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenAnswer(invocation -> updated(invocation.<Collection<Student>>getArgument(1)));
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        studentWriteBuffer.shutdown();
+    }
+
+    @Test
+    public void shouldCoalesceUpdatesToOneRowWrite() {
+        studentWriteBuffer.enqueue(buffered("1", true));
+        studentWriteBuffer.enqueue(buffered("1", false));
+
+        assertFalse(studentWriteBuffer.getPending("1").isActive());
+        // the superseded update is never written, only the latest one is in flight
+        assertEquals(1L, studentChangeSequence.committed());
+
+        studentWriteBuffer.flush();
+
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), anyCollection(), eq(1),
+                any(ParameterizedPreparedStatementSetter.class));
+        assertNull(studentWriteBuffer.getPending("1"));
+        assertEquals(2L, studentChangeSequence.committed());
+    }
+
+    @Test
+    public void shouldLayBufferedUpdatesOverListedRows() {
+        studentWriteBuffer.enqueue(buffered("2", false));
+        studentWriteBuffer.enqueue(buffered("3", true));
+
+        List<StudentResponse> students = studentWriteBuffer.overlay(Arrays.asList(
+                new StudentResponse("1", "Ann", true), new StudentResponse("2", "Tom", true)), null, "2",
+                student -> true);
+
+        // 2 is now inactive, 3 lies past the rows read and waits for its page
+        assertEquals(1, students.size());
+        assertEquals("1", students.get(0).getId());
+        assertEquals("David", studentWriteBuffer.overlay(Arrays.asList(new StudentResponse("3", "Ann", true)),
+                "2", null, student -> true).get(0).getName());
+    }
+
+    @Test
+    public void shouldChangeListVersionOnceTheUpdateIsWritten() {
+        studentWriteBuffer.enqueue(buffered("1", true));
+        String queued = studentListVersion.current();
+
+        studentWriteBuffer.flush();
+
+        assertNotEquals(queued, studentListVersion.current());
+    }
+
+    @Test
+    public void shouldNotWriteDiscardedUpdate() {
+        studentWriteBuffer.enqueue(buffered("1", true));
+        studentWriteBuffer.discard("1");
+
+        studentWriteBuffer.flush();
+
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyCollection(), eq(1),
+                any(ParameterizedPreparedStatementSetter.class));
+        assertEquals(1L, studentChangeSequence.committed());
+    }
+
+    @Test
+    public void shouldRestoreArchivedStudentMissedByUpdate() {
+        when(studentArchiver.isEnabled()).thenReturn(true);
+        when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), eq(1), any(ParameterizedPreparedStatementSetter.class)))
+                .thenReturn(new int[][]{{0}});
+        studentWriteBuffer.enqueue(buffered("1", true));
+
+        studentWriteBuffer.flush();
+
+        verify(studentArchiver).restore("1", "David", true, 1L);
+        assertNull(studentWriteBuffer.getPending("1"));
+    }
+
+    @Test
+    public void shouldDropOnlyTheRowTheDatabaseRejects() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenAnswer(invocation -> {
+                    Collection<Student> students = invocation.getArgument(1);
+                    if (students.stream().anyMatch(student -> student.getId().equals("2")))
+                        throw new DataIntegrityViolationException("Value too long for column NAME");
+                    return updated(students);
+                });
+        studentWriteBuffer.enqueue(buffered("1", true));
+        studentWriteBuffer.enqueue(buffered("2", true));
+
+        studentWriteBuffer.flush();
+
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), anyCollection(), eq(2),
+                any(ParameterizedPreparedStatementSetter.class));
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), anyCollection(), eq(1),
+                any(ParameterizedPreparedStatementSetter.class));
+        assertNull(studentWriteBuffer.getPending("1"));
+        assertNull(studentWriteBuffer.getPending("2"));
+        assertEquals(2L, studentChangeSequence.committed());
+    }
+
+    @Test
+    public void shouldKeepUpdatesWhileTheDatabaseIsUnreachable() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenThrow(new DataAccessResourceFailureException("Connection refused"));
+        studentWriteBuffer.enqueue(buffered("1", true));
+        studentWriteBuffer.enqueue(buffered("2", true));
+
+        try {
+            studentWriteBuffer.flush();
+            fail("Expected the flush to fail");
+        } catch (DataAccessResourceFailureException expected) {
+            // retried on the next flush
+        }
+
+        assertNotNull(studentWriteBuffer.getPending("1"));
+        assertFalse(studentWriteBuffer.hasCapacity());
+        assertEquals(0L, studentChangeSequence.committed());
+
+        studentWriteBuffer.discard("1");
+        studentWriteBuffer.discard("2");
+        assertTrue(studentWriteBuffer.hasCapacity());
+    }
+
+    private static int[][] updated(Collection<Student> students) {
+        int[] updated = new int[students.size()];
+        Arrays.fill(updated, 1);
+        return new int[][]{updated};
+    }
+
+    private Student buffered(String id, boolean active) {
+        Student student = new Student(id, "David", active);
+        student.setChangeSeq(studentChangeSequence.begin());
+        return student;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.school.util;
+
+import com.example.school.exception.ServiceBusyException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RepositorySchedulerTest {
+
+    private final RepositoryScheduler repositoryScheduler = new RepositoryScheduler(1, 1);
+
+    @After
+    public void tearDown() {
+        repositoryScheduler.shutdown();
+    }
+
+    @Test
+    public void shouldRunOnRepositoryThread() throws InterruptedException {
+        repositoryScheduler.schedule("test", Single.fromCallable(() -> Thread.currentThread().getName()))
+                .test()
+                .await()
+                .assertValue(threadName -> threadName.startsWith("repository-"));
+    }
+
+    @Test
+    public void shouldFailFastWhenSaturated() throws InterruptedException {
+        repositoryScheduler.bindTo(new SimpleMeterRegistry());
+        CountDownLatch release = new CountDownLatch(1);
+        Single<Boolean> blocked = Single.fromCallable(() -> release.await(5, TimeUnit.SECONDS));
+
+        TestObserver<Boolean> running = repositoryScheduler.schedule("test", blocked).test();
+        TestObserver<Boolean> queued = repositoryScheduler.schedule("test", blocked).test();
+        repositoryScheduler.schedule("test", blocked)
+                .test()
+                .assertError(ServiceBusyException.class);
+
+        release.countDown();
+        running.await().assertValue(true);
+        queued.await().assertValue(true);
+    }
+}